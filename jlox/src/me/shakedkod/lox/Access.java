@@ -0,0 +1,14 @@
+package me.shakedkod.lox;
+
+// Where a resolved variable lives at runtime.
+public enum Access
+{
+    // looked up by name in the globals
+    GLOBAL,
+    // a slot of the current frame
+    LOCAL,
+    // a slot of the current frame that holds the Cell of a captured local
+    CELL,
+    // one of the cells the running closure captured
+    UPVALUE
+}
@@ -0,0 +1,163 @@
+package me.shakedkod.lox;
+
+// How one Binary site runs, rewritten from the operand types it has seen. Every site
+// starts UNINITIALIZED and specializes on its first run into a node for its operator
+// and those types, which only checks that they still hold. A "+" site that sees
+// anything else falls back to ADD_ANY for good; the other nodes can only fail with the
+// error the generic code would give. Arithmetic the Resolver proved numeric never gets
+// here, it is evaluated unboxed instead.
+public abstract class BinaryNode
+{
+    public static final BinaryNode UNINITIALIZED = new Uninitialized();
+    static final BinaryNode ADD_NUMBERS = new AddNumbers();
+    static final BinaryNode CONCATENATE = new Concatenate();
+    static final BinaryNode ADD_ANY = new AddAny();
+    static final BinaryNode EQUAL = new Equal();
+    static final BinaryNode NOT_EQUAL = new NotEqual();
+    static final BinaryNode GREATER = new Greater();
+    static final BinaryNode GREATER_EQUAL = new GreaterEqual();
+    static final BinaryNode LESS = new Less();
+    static final BinaryNode LESS_EQUAL = new LessEqual();
+
+    abstract Object execute(Expression.Binary binary, Object left, Object right);
+
+    private static BinaryNode specialize(TokenType operator, Object left, Object right)
+    {
+        switch (operator)
+        {
+            case BANG_EQUAL: return NOT_EQUAL;
+            case EQUAL_EQUAL: return EQUAL;
+            case GREATER: return GREATER;
+            case GREATER_EQUAL: return GREATER_EQUAL;
+            case LESS: return LESS;
+            case LESS_EQUAL: return LESS_EQUAL;
+            case PLUS:
+                if (left instanceof Double && right instanceof Double) return ADD_NUMBERS;
+                if (left instanceof String && right instanceof String) return CONCATENATE;
+                return ADD_ANY;
+        }
+
+        // the rest of the arithmetic is numeric, and the Resolver keeps it off this path
+        throw new IllegalStateException("No node for operator " + operator + ".");
+    }
+
+    // the site gives up on its types and stays generic
+    private static Object generalize(Expression.Binary binary, Object left, Object right)
+    {
+        binary.setNode(ADD_ANY);
+        return ADD_ANY.execute(binary, left, right);
+    }
+
+    private static class Uninitialized extends BinaryNode
+    {
+        @Override
+        Object execute(Expression.Binary binary, Object left, Object right)
+        {
+            BinaryNode node = specialize(binary.getOperator().getType(), left, right);
+            binary.setNode(node);
+            return node.execute(binary, left, right);
+        }
+    }
+
+    private static class AddNumbers extends BinaryNode
+    {
+        @Override
+        Object execute(Expression.Binary binary, Object left, Object right)
+        {
+            if (left instanceof Double && right instanceof Double) return (double)left + (double)right;
+            return generalize(binary, left, right);
+        }
+    }
+
+    private static class Concatenate extends BinaryNode
+    {
+        @Override
+        Object execute(Expression.Binary binary, Object left, Object right)
+        {
+            if (left instanceof String && right instanceof String) return (String)left + (String)right;
+            return generalize(binary, left, right);
+        }
+    }
+
+    private static class AddAny extends BinaryNode
+    {
+        @Override
+        Object execute(Expression.Binary binary, Object left, Object right)
+        {
+            if (left instanceof Double && right instanceof Double)
+                return (double)left + (double)right;
+            if (left instanceof String && right instanceof String)
+                return (String)left + (String)right;
+
+            throw new RuntimeError(binary.getOperator(),
+                    "Operands must be two numbers or two strings");
+        }
+    }
+
+    private static class Equal extends BinaryNode
+    {
+        @Override
+        Object execute(Expression.Binary binary, Object left, Object right)
+        {
+            return Interpreter.isEqual(left, right);
+        }
+    }
+
+    private static class NotEqual extends BinaryNode
+    {
+        @Override
+        Object execute(Expression.Binary binary, Object left, Object right)
+        {
+            return !Interpreter.isEqual(left, right);
+        }
+    }
+
+    // comparisons only ever take numbers, so a failed check is always an error
+    private static abstract class Comparison extends BinaryNode
+    {
+        abstract boolean test(double left, double right);
+
+        @Override
+        Object execute(Expression.Binary binary, Object left, Object right)
+        {
+            if (left instanceof Double && right instanceof Double) return test((double)left, (double)right);
+            throw new RuntimeError(binary.getOperator(), "Operands must be numbers.");
+        }
+    }
+
+    private static class Greater extends Comparison
+    {
+        @Override
+        boolean test(double left, double right)
+        {
+            return left > right;
+        }
+    }
+
+    private static class GreaterEqual extends Comparison
+    {
+        @Override
+        boolean test(double left, double right)
+        {
+            return left >= right;
+        }
+    }
+
+    private static class Less extends Comparison
+    {
+        @Override
+        boolean test(double left, double right)
+        {
+            return left < right;
+        }
+    }
+
+    private static class LessEqual extends Comparison
+    {
+        @Override
+        boolean test(double left, double right)
+        {
+            return left <= right;
+        }
+    }
+}
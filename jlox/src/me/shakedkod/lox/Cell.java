@@ -0,0 +1,24 @@
+package me.shakedkod.lox;
+
+// A captured local. A variable that a closure captures lives in a Cell rather than
+// straight in its frame's slot, so the frame and every closure that captured it share
+// the one value, and a closure never has to hold on to the frame itself.
+public final class Cell
+{
+    private Object _value;
+
+    public Cell(Object value)
+    {
+        _value = value;
+    }
+
+    public Object get()
+    {
+        return _value;
+    }
+
+    public void set(Object value)
+    {
+        _value = value;
+    }
+}
@@ -0,0 +1,885 @@
+package me.shakedkod.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Turns a resolved syntax tree into a tree of Java lambdas once, so running the
+// program no longer goes through accept()/Visitor for every node it evaluates.
+public class ClosureCompiler implements Expression.Visitor<ClosureCompiler.Code>, Statement.Visitor<ClosureCompiler.Code>
+{
+    // the code of an expression returns its value; the code of a statement returns NORMAL when
+    // control falls through to the next one, and anything else (nil included) when a return
+    // statement ran, like in the Interpreter
+    interface Code
+    {
+        Object run(Environment environment);
+    }
+
+    static final Object NORMAL = Interpreter.NORMAL;
+
+    private final Interpreter _interpreter;
+    private final Environment _globals;
+    private boolean _isGlobalScope = true;
+
+    public ClosureCompiler(Interpreter interpreter)
+    {
+        _interpreter = interpreter;
+        _globals = interpreter.globals;
+    }
+
+    public void interpret(List<Statement> statements)
+    {
+        Code[] program = compileAll(statements);
+
+        try
+        {
+            for (Code statement : program)
+                statement.run(_globals);
+        }
+        catch (RuntimeError error)
+        {
+            Lox.runtimeError(error);
+        }
+    }
+
+    // Functions & Classes & More
+    @Override
+    public Code visitClassStatement(Statement.Class statement)
+    {
+        String name = statement.getName().getLexeme();
+        boolean isGlobal = _isGlobalScope;
+        int slot = statement.getSlot();
+        boolean isCaptured = statement.getCaptured();
+        int superSlot = statement.getSuperSlot();
+        Code superclassCode = statement.getSuperclass() != null ? compile(statement.getSuperclass()) : null;
+        Token superclassName = statement.getSuperclass() != null ? statement.getSuperclass().getName() : null;
+
+        List<Statement.Function> methodDeclarations = statement.getMethods();
+        List<Code[]> methodBodies = new ArrayList<>();
+        for (Statement.Function method : methodDeclarations)
+            methodBodies.add(compileFunctionBody(method));
+
+        List<Statement.Function> staticDeclarations = statement.getStaticMethods();
+        List<Code[]> staticBodies = new ArrayList<>();
+        for (Statement.Function method : staticDeclarations)
+            staticBodies.add(compileFunctionBody(method));
+
+        return environment -> {
+            Object superclass = null;
+            if (superclassCode != null)
+            {
+                superclass = superclassCode.run(environment);
+                if (!(superclass instanceof LoxClass))
+                    throw new RuntimeError(superclassName, "Superclass must be a class.");
+            }
+
+            Cell cell = isCaptured ? new Cell(null) : null;
+            if (isCaptured) environment.define(slot, cell);
+
+            Environment methodEnvironment = environment;
+            if (superclass != null)
+            {
+                if (isGlobal) methodEnvironment = new Environment(new Object[1], null);
+                methodEnvironment.define(superSlot, new Cell(superclass));
+            }
+
+            Map<String, LoxFunction> methods = new HashMap<>();
+            for (int i = 0; i < methodDeclarations.size(); i++)
+            {
+                Statement.Function method = methodDeclarations.get(i);
+                methods.put(method.getName().getLexeme(), new LoxFunction(method,
+                        methodEnvironment.capture(method.getUpvalues()), true,
+                        method.getName().getLexeme().equals("init"), methodBodies.get(i)));
+            }
+
+            Map<String, LoxFunction> staticMethods = new HashMap<>();
+            for (int i = 0; i < staticDeclarations.size(); i++)
+            {
+                Statement.Function method = staticDeclarations.get(i);
+                staticMethods.put(method.getName().getLexeme(), new LoxFunction(method,
+                        methodEnvironment.capture(method.getUpvalues()), true, false, staticBodies.get(i)));
+            }
+
+            LoxClass klass = new LoxClass(name, (LoxClass)superclass, staticMethods, methods);
+            if (isGlobal) environment.defineGlobal(slot, klass);
+            else if (isCaptured) cell.set(klass);
+            else environment.define(slot, klass);
+            return NORMAL;
+        };
+    }
+
+    @Override
+    public Code visitFunctionStatement(Statement.Function statement)
+    {
+        boolean isGlobal = _isGlobalScope;
+        int slot = statement.getSlot();
+        Code[] body = compileFunctionBody(statement);
+
+        Upvalue[] upvalues = statement.getUpvalues();
+
+        if (isGlobal)
+            return environment -> {
+                environment.defineGlobal(slot, new LoxFunction(statement, environment.capture(upvalues), false, false, body));
+                return NORMAL;
+            };
+
+        // the Cell goes into the slot first, for the function to capture itself
+        if (statement.getCaptured())
+            return environment -> {
+                Cell cell = new Cell(null);
+                environment.define(slot, cell);
+                cell.set(new LoxFunction(statement, environment.capture(upvalues), false, false, body));
+                return NORMAL;
+            };
+        return environment -> {
+            environment.define(slot, new LoxFunction(statement, environment.capture(upvalues), false, false, body));
+            return NORMAL;
+        };
+    }
+
+    // STATEMENTS
+    @Override
+    public Code visitBlockStatement(Statement.Block statement)
+    {
+        boolean enclosingScope = _isGlobalScope;
+        _isGlobalScope = false;
+        Code[] body = compileAll(statement.getStatements());
+        _isGlobalScope = enclosingScope;
+
+        // a top-level block is the only one with a frame of its own
+        int frameSize = statement.getFrameSize();
+        if (frameSize == -1)
+            return environment -> run(body, environment);
+        return environment -> run(body, new Environment(new Object[frameSize], null));
+    }
+
+    @Override
+    public Code visitExprStatement(Statement.Expr statement)
+    {
+        if (Lox._isREPL) return visitPrintStatement(new Statement.Print(statement.getExpression()));
+
+        Code expression = compile(statement.getExpression());
+        return environment -> {
+            expression.run(environment);
+            return NORMAL;
+        };
+    }
+
+    @Override
+    public Code visitPrintStatement(Statement.Print statement)
+    {
+        Code value = compile(statement.getExpression());
+        return environment -> {
+            System.out.println(Interpreter.stringify(value.run(environment)));
+            return NORMAL;
+        };
+    }
+
+    @Override
+    public Code visitReturnStatement(Statement.Return statement)
+    {
+        if (statement.getValue() == null)
+            return environment -> null;
+
+        Code value = statement.getTail()
+                ? call((Expression.Call)statement.getValue(), true)
+                : compile(statement.getValue());
+        return value::run;
+    }
+
+    @Override
+    public Code visitVarStatement(Statement.Var statement)
+    {
+        int slot = statement.getSlot();
+        Code initializer = statement.getInitializer() != null
+                ? compile(statement.getInitializer())
+                : environment -> null;
+
+        if (_isGlobalScope)
+            return environment -> {
+                environment.defineGlobal(slot, initializer.run(environment));
+                return NORMAL;
+            };
+        if (statement.getCaptured())
+            return environment -> {
+                environment.define(slot, new Cell(initializer.run(environment)));
+                return NORMAL;
+            };
+        return environment -> {
+            environment.define(slot, initializer.run(environment));
+            return NORMAL;
+        };
+    }
+
+    @Override
+    public Code visitIfStatement(Statement.If statement)
+    {
+        Code condition = compile(statement.getCondition());
+        Code thenBranch = compile(statement.getThenBranch());
+
+        if (statement.getElseBranch() == null)
+            return environment -> {
+                if (Interpreter.isTruthy(condition.run(environment))) return thenBranch.run(environment);
+                return NORMAL;
+            };
+
+        Code elseBranch = compile(statement.getElseBranch());
+        return environment -> {
+            if (Interpreter.isTruthy(condition.run(environment))) return thenBranch.run(environment);
+            return elseBranch.run(environment);
+        };
+    }
+
+    @Override
+    public Code visitForStatement(Statement.For statement)
+    {
+        boolean enclosingScope = _isGlobalScope;
+        _isGlobalScope = false;
+        Code initializer = statement.getInitializer() != null
+                ? compile(statement.getInitializer())
+                : environment -> NORMAL;
+        Code condition = statement.getCondition() != null
+                ? compile(statement.getCondition())
+                : environment -> true;
+        Code body = compile(statement.getBody());
+        Code increment = statement.getIncrement() != null
+                ? compile(statement.getIncrement())
+                : environment -> null;
+        _isGlobalScope = enclosingScope;
+
+        Code loop = environment -> {
+            while (Interpreter.isTruthy(condition.run(environment)))
+            {
+                Object completion = body.run(environment);
+                if (completion != NORMAL) return completion;
+                increment.run(environment);
+            }
+            return NORMAL;
+        };
+
+        Code run;
+        if (statement.getCounter())
+        {
+            Code counter = counter(statement, body);
+            int slot = ((Statement.Var)statement.getInitializer()).getSlot();
+            run = environment -> {
+                initializer.run(environment);
+                if (environment.get(slot) instanceof Double) return counter.run(environment);
+                return loop.run(environment);
+            };
+        }
+        else
+            run = environment -> {
+                initializer.run(environment);
+                return loop.run(environment);
+            };
+
+        // as with a block, only at the top level does the loop get a frame
+        int frameSize = statement.getFrameSize();
+        if (frameSize == -1) return run;
+        return environment -> run.run(new Environment(new Object[frameSize], null));
+    }
+
+    // the counting loop of Resolver.isCounter, with the counter in a local double
+    private Code counter(Statement.For statement, Code body)
+    {
+        Expression.Binary condition = (Expression.Binary)statement.getCondition();
+        Token operator = condition.getOperator();
+        TokenType comparison = operator.getType();
+        Code limit = compile(condition.getRight());
+        int slot = ((Statement.Var)statement.getInitializer()).getSlot();
+        double step = statement.getStep();
+
+        return environment -> {
+            double counter = (double)environment.get(slot);
+            while (true)
+            {
+                Object bound = limit.run(environment);
+                if (!(bound instanceof Double)) throw new RuntimeError(operator, "Operands must be numbers.");
+                if (!Interpreter.compare(comparison, counter, (double)bound)) return NORMAL;
+
+                Object completion = body.run(environment);
+                if (completion != NORMAL) return completion;
+
+                counter += step;
+                environment.assign(slot, counter);
+            }
+        };
+    }
+
+    @Override
+    public Code visitWhileStatement(Statement.While statement)
+    {
+        Code condition = compile(statement.getCondition());
+        Code body = compile(statement.getBody());
+
+        return environment -> {
+            while (Interpreter.isTruthy(condition.run(environment)))
+            {
+                Object completion = body.run(environment);
+                if (completion != NORMAL) return completion;
+            }
+            return NORMAL;
+        };
+    }
+
+    // EXPRESSIONS
+    @Override
+    public Code visitLiteralExpression(Expression.Literal expression)
+    {
+        Object value = expression.getValue();
+        return environment -> value;
+    }
+
+    @Override
+    public Code visitGroupingExpression(Expression.Grouping expression)
+    {
+        return compile(expression.getExpression());
+    }
+
+    @Override
+    public Code visitUnaryExpression(Expression.Unary expression)
+    {
+        Token operator = expression.getOperator();
+        Code right = compile(expression.getRight());
+
+        switch (operator.getType())
+        {
+            case MINUS:
+                return environment -> {
+                    Object value = right.run(environment);
+                    Interpreter.checkNumberOperand(operator, value);
+                    return -(double)value;
+                };
+            case BANG:
+                return environment -> !Interpreter.isTruthy(right.run(environment));
+        }
+
+        // Unreachable
+        return environment -> null;
+    }
+
+    @Override
+    public Code visitBinaryExpression(Expression.Binary expression)
+    {
+        Token operator = expression.getOperator();
+        Code left = compile(expression.getLeft());
+        Code right = compile(expression.getRight());
+
+        switch (operator.getType())
+        {
+            // equality
+            case BANG_EQUAL:
+                return environment -> !Interpreter.isEqual(left.run(environment), right.run(environment));
+            case EQUAL_EQUAL:
+                return environment -> Interpreter.isEqual(left.run(environment), right.run(environment));
+            // comparison operators
+            case GREATER:
+                return environment -> {
+                    Object a = left.run(environment), b = right.run(environment);
+                    Interpreter.checkNumberOperands(operator, a, b);
+                    return (double)a > (double)b;
+                };
+            case GREATER_EQUAL:
+                return environment -> {
+                    Object a = left.run(environment), b = right.run(environment);
+                    Interpreter.checkNumberOperands(operator, a, b);
+                    return (double)a >= (double)b;
+                };
+            case LESS:
+                return environment -> {
+                    Object a = left.run(environment), b = right.run(environment);
+                    Interpreter.checkNumberOperands(operator, a, b);
+                    return (double)a < (double)b;
+                };
+            case LESS_EQUAL:
+                return environment -> {
+                    Object a = left.run(environment), b = right.run(environment);
+                    Interpreter.checkNumberOperands(operator, a, b);
+                    return (double)a <= (double)b;
+                };
+            // arithmetic operators
+            case MINUS:
+                return environment -> {
+                    Object a = left.run(environment), b = right.run(environment);
+                    Interpreter.checkNumberOperands(operator, a, b);
+                    return (double)a - (double)b;
+                };
+            case PLUS:
+                return environment -> {
+                    Object a = left.run(environment), b = right.run(environment);
+                    if (a instanceof Double && b instanceof Double)
+                        return (double)a + (double)b;
+                    if (a instanceof String && b instanceof String)
+                        return (String)a + (String)b;
+
+                    throw new RuntimeError(operator, "Operands must be two numbers or two strings");
+                };
+            case SLASH:
+                return environment -> {
+                    Object a = left.run(environment), b = right.run(environment);
+                    Interpreter.checkNumberOperands(operator, a, b);
+                    if ((double)b == (double)0) throw new RuntimeError(operator,
+                            "Dividing by 0 is not allowed.");
+                    return (double)a / (double)b;
+                };
+            case STAR:
+                return environment -> {
+                    Object a = left.run(environment), b = right.run(environment);
+                    Interpreter.checkNumberOperands(operator, a, b);
+                    return (double)a * (double)b;
+                };
+        }
+
+        // Unreachable
+        return environment -> null;
+    }
+
+    @Override
+    public Code visitTernaryExpression(Expression.Ternary expression)
+    {
+        Code condition = compile(expression.getCondition());
+        Code ifTrue = compile(expression.getIfTrue());
+        Code ifFalse = compile(expression.getIfFalse());
+
+        return environment -> Interpreter.isTruthy(condition.run(environment))
+                ? ifTrue.run(environment)
+                : ifFalse.run(environment);
+    }
+
+    @Override
+    public Code visitLogicalExpression(Expression.Logical expression)
+    {
+        Code left = compile(expression.getLeft());
+        Code right = compile(expression.getRight());
+
+        if (expression.getOperator().getType() == TokenType.OR)
+            return environment -> {
+                Object value = left.run(environment);
+                return Interpreter.isTruthy(value) ? value : right.run(environment);
+            };
+
+        return environment -> {
+            Object value = left.run(environment);
+            return !Interpreter.isTruthy(value) ? value : right.run(environment);
+        };
+    }
+
+    @Override
+    public Code visitSetExpression(Expression.Set expression)
+    {
+        Code object = compile(expression.getObject());
+        Code value = compile(expression.getValue());
+        Token name = expression.getName();
+        PropertyCache cache = expression.getCache();
+
+        return environment -> {
+            Object instance = object.run(environment);
+            if (!(instance instanceof LoxInstance))
+                throw new RuntimeError(name, "Only instances have fields.");
+
+            Object result = value.run(environment);
+            cache.set((LoxInstance)instance, name, result);
+            return result;
+        };
+    }
+
+    @Override
+    public Code visitSuperExpression(Expression.Super expression)
+    {
+        Code superclassCode = local(expression.getAccess(), expression.getSlot());
+        Code receiver = compile(expression.getReceiver());
+        Token method = expression.getMethod();
+
+        return environment -> {
+            LoxClass superclass = (LoxClass)superclassCode.run(environment);
+            LoxInstance object = (LoxInstance)receiver.run(environment);
+
+            LoxFunction function = superclass.findMethod(method.getLexeme());
+            if (function == null)
+            {
+                function = superclass.findStaticMethod(method.getLexeme());
+
+                if (function == null) throw new RuntimeError(method,
+                        "Undefined property '" + method.getLexeme() + "'.");
+            }
+
+            return function.bind(object);
+        };
+    }
+
+    @Override
+    public Code visitThisExpression(Expression.This expression)
+    {
+        return local(expression.getAccess(), expression.getSlot());
+    }
+
+    @Override
+    public Code visitVariableExpression(Expression.Variable expression)
+    {
+        if (expression.getAccess() == Access.GLOBAL)
+        {
+            Token name = expression.getName();
+            int slot = expression.getSlot();
+            return environment -> _globals.getGlobal(slot, name);
+        }
+
+        return local(expression.getAccess(), expression.getSlot());
+    }
+
+    @Override
+    public Code visitAssignExpression(Expression.Assign expression)
+    {
+        Code value = compile(expression.getValue());
+        int slot = expression.getSlot();
+
+        switch (expression.getAccess())
+        {
+            case LOCAL:
+                return environment -> {
+                    Object result = value.run(environment);
+                    environment.assign(slot, result);
+                    return result;
+                };
+            case CELL:
+                return environment -> {
+                    Object result = value.run(environment);
+                    ((Cell)environment.get(slot)).set(result);
+                    return result;
+                };
+            case UPVALUE:
+                return environment -> {
+                    Object result = value.run(environment);
+                    environment.getUpvalue(slot).set(result);
+                    return result;
+                };
+            default:
+                Token name = expression.getName();
+                return environment -> {
+                    Object result = value.run(environment);
+                    _globals.assignGlobal(slot, name, result);
+                    return result;
+                };
+        }
+    }
+
+    @Override
+    public Code visitIncrementExpression(Expression.Increment expression)
+    {
+        Token name = expression.getName();
+        Token operator = expression.getOperator();
+        double delta = expression.getDelta();
+        int slot = expression.getSlot();
+
+        switch (expression.getAccess())
+        {
+            case LOCAL:
+                return environment -> {
+                    Object result = Interpreter.increment(environment.get(slot), delta, operator);
+                    environment.assign(slot, result);
+                    return result;
+                };
+            case CELL:
+                return environment -> {
+                    Cell cell = (Cell)environment.get(slot);
+                    Object result = Interpreter.increment(cell.get(), delta, operator);
+                    cell.set(result);
+                    return result;
+                };
+            case UPVALUE:
+                return environment -> {
+                    Cell cell = environment.getUpvalue(slot);
+                    Object result = Interpreter.increment(cell.get(), delta, operator);
+                    cell.set(result);
+                    return result;
+                };
+            default:
+                return environment -> {
+                    Object result = Interpreter.increment(_globals.getGlobal(slot, name), delta, operator);
+                    _globals.assignGlobal(slot, name, result);
+                    return result;
+                };
+        }
+    }
+
+    @Override
+    public Code visitCompareExpression(Expression.Compare expression)
+    {
+        Token operator = expression.getOperator();
+        TokenType comparison = operator.getType();
+        double constant = expression.getConstant();
+        int slot = expression.getSlot();
+
+        if (expression.getAccess() == Access.LOCAL)
+            return environment -> {
+                Object value = environment.get(slot);
+                if (!(value instanceof Double)) throw Interpreter.operandsError(operator);
+                return Interpreter.compare(comparison, (double)value, constant);
+            };
+
+        Token name = expression.getName();
+        Code variable = expression.getAccess() == Access.GLOBAL
+                ? environment -> _globals.getGlobal(slot, name)
+                : local(expression.getAccess(), slot);
+        return environment -> {
+            Object value = variable.run(environment);
+            if (!(value instanceof Double)) throw Interpreter.operandsError(operator);
+            return Interpreter.compare(comparison, (double)value, constant);
+        };
+    }
+
+    @Override
+    public Code visitHoistedExpression(Expression.Hoisted expression)
+    {
+        Code value = compile(expression.getExpression());
+        int slot = expression.getSlot();
+
+        return environment -> {
+            Object result = environment.get(slot);
+            if (result == null)
+            {
+                result = value.run(environment);
+                environment.define(slot, Interpreter.hoistable(result));
+            }
+            return result;
+        };
+    }
+
+    @Override
+    public Code visitCallExpression(Expression.Call expression)
+    {
+        return call(expression, false);
+    }
+
+    @Override
+    public Code visitCallGlobalExpression(Expression.CallGlobal expression)
+    {
+        Token name = expression.getName();
+        int slot = expression.getSlot();
+        Code[] arguments = compileArguments(expression.getArguments());
+        Token paren = expression.getParen();
+
+        return environment -> {
+            Object function = _globals.getGlobal(slot, name);
+            return call(function, evaluate(arguments, environment), paren, false);
+        };
+    }
+
+    private Code call(Expression.Call expression, boolean isTail)
+    {
+        if (expression.getCallee() instanceof Expression.Get)
+            return invoke(expression, (Expression.Get)expression.getCallee(), isTail);
+
+        Code callee = compile(expression.getCallee());
+        Code[] arguments = compileArguments(expression.getArguments());
+        Token paren = expression.getParen();
+
+        return environment -> {
+            Object function = callee.run(environment);
+
+            Object[] values = evaluate(arguments, environment);
+
+            return call(function, values, paren, isTail);
+        };
+    }
+
+    private Object call(Object function, Object[] values, Token paren, boolean isTail)
+    {
+        if (!(function instanceof LoxCallable))
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+
+        LoxCallable callable = (LoxCallable)function;
+        if (values.length != callable.arity())
+            throw new RuntimeError(paren,
+                    "Expected " + callable.arity() + " arguments but got " + values.length + ".");
+
+        if (isTail && callable instanceof LoxFunction)
+            return ((LoxFunction)callable).tailCall(_interpreter, values);
+        return callable.call(_interpreter, values);
+    }
+
+    // obj.method(...) finds the method and calls it with obj as this, never bound
+    private Code invoke(Expression.Call expression, Expression.Get property, boolean isTail)
+    {
+        Code object = compile(property.getObject());
+        Code[] arguments = compileArguments(expression.getArguments());
+        Token name = property.getName();
+        PropertyCache cache = property.getCache();
+        Token paren = expression.getParen();
+
+        return environment -> invoke(object.run(environment), name, cache, arguments, paren, isTail, environment);
+    }
+
+    private Object invoke(Object receiver, Token name, PropertyCache cache, Code[] arguments, Token paren,
+                          boolean isTail, Environment environment)
+    {
+        if (!(receiver instanceof LoxInstance))
+            throw new RuntimeError(name, "Only instances have properties.");
+
+        LoxInstance instance = (LoxInstance)receiver;
+        LoxFunction method = cache.findMethod(instance, name);
+        Object function = method != null ? method : cache.get(instance, name);
+
+        Object[] values = evaluate(arguments, environment);
+
+        if (!(function instanceof LoxCallable))
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+
+        LoxCallable callable = (LoxCallable)function;
+        if (values.length != callable.arity())
+            throw new RuntimeError(paren,
+                    "Expected " + callable.arity() + " arguments but got " + values.length + ".");
+
+        if (method != null && isTail) return _interpreter.tailCall(method, instance, values);
+        if (method != null) return method.invoke(_interpreter, instance, values);
+        if (isTail && callable instanceof LoxFunction)
+            return ((LoxFunction)callable).tailCall(_interpreter, values);
+        return callable.call(_interpreter, values);
+    }
+
+    // the copied body when the global is still the inlined function, a call otherwise
+    @Override
+    public Code visitInlineExpression(Expression.Inline expression)
+    {
+        Token name = expression.getName();
+        int slot = expression.getSlot();
+        Code[] arguments = compileArguments(expression.getArguments());
+        Token paren = expression.getParen();
+        int[] slots = expression.getSlots();
+        Statement.Function declaration = expression.getFunction();
+
+        if (slots == null)
+            return environment -> call(_globals.getGlobal(slot, name), evaluate(arguments, environment), paren, false);
+
+        Code body = compile(expression.getBody());
+        return environment -> {
+            Object function = _globals.getGlobal(slot, name);
+            if (!(function instanceof LoxFunction) || ((LoxFunction)function).getDeclaration() != declaration)
+                return call(function, evaluate(arguments, environment), paren, false);
+
+            for (int i = 0; i < slots.length; i++)
+                environment.define(slots[i], arguments[i].run(environment));
+            return body.run(environment);
+        };
+    }
+
+    // likewise for a method, checked against the one the receiver finds
+    @Override
+    public Code visitInlineMethodExpression(Expression.InlineMethod expression)
+    {
+        Code object = compile(expression.getObject());
+        Token name = expression.getName();
+        PropertyCache cache = expression.getCache();
+        Code[] arguments = compileArguments(expression.getArguments());
+        Token paren = expression.getParen();
+        int receiverSlot = expression.getReceiverSlot();
+        int[] slots = expression.getSlots();
+        Statement.Function declaration = expression.getFunction();
+
+        if (slots == null)
+            return environment -> invoke(object.run(environment), name, cache, arguments, paren, false, environment);
+
+        Code body = compile(expression.getBody());
+        return environment -> {
+            Object receiver = object.run(environment);
+            if (receiver instanceof LoxInstance)
+            {
+                LoxFunction method = cache.findMethod((LoxInstance)receiver, name);
+                if (method != null && method.getDeclaration() == declaration)
+                {
+                    environment.define(receiverSlot, receiver);
+                    for (int i = 0; i < slots.length; i++)
+                        environment.define(slots[i], arguments[i].run(environment));
+                    return body.run(environment);
+                }
+            }
+
+            return invoke(receiver, name, cache, arguments, paren, false, environment);
+        };
+    }
+
+    @Override
+    public Code visitGetExpression(Expression.Get expression)
+    {
+        Code object = compile(expression.getObject());
+        Token name = expression.getName();
+        PropertyCache cache = expression.getCache();
+
+        return environment -> {
+            Object instance = object.run(environment);
+            if (instance instanceof LoxInstance)
+                return cache.get((LoxInstance)instance, name);
+
+            throw new RuntimeError(name, "Only instances have properties.");
+        };
+    }
+
+    //----------------------//
+    //    helper methods    //
+    //----------------------//
+    private Code compile(Expression expression)
+    {
+        return expression.accept(this);
+    }
+
+    private Code compile(Statement statement)
+    {
+        return statement.accept(this);
+    }
+
+    static Object run(Code[] statements, Environment environment)
+    {
+        for (Code statement : statements)
+        {
+            Object completion = statement.run(environment);
+            if (completion != NORMAL) return completion;
+        }
+        return NORMAL;
+    }
+
+    private static Object[] evaluate(Code[] arguments, Environment environment)
+    {
+        Object[] values = new Object[arguments.length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = arguments[i].run(environment);
+        return values;
+    }
+
+    private Code[] compileArguments(List<Expression> arguments)
+    {
+        Code[] compiled = new Code[arguments.size()];
+        for (int i = 0; i < compiled.length; i++)
+            compiled[i] = compile(arguments.get(i));
+        return compiled;
+    }
+
+    private Code[] compileAll(List<Statement> statements)
+    {
+        Code[] compiled = new Code[statements.size()];
+        for (int i = 0; i < compiled.length; i++)
+            compiled[i] = compile(statements.get(i));
+        return compiled;
+    }
+
+    private Code[] compileFunctionBody(Statement.Function function)
+    {
+        boolean enclosingScope = _isGlobalScope;
+        _isGlobalScope = false;
+        Code[] body = compileAll(function.getBody());
+        _isGlobalScope = enclosingScope;
+        return body;
+    }
+
+    // every kind of access gets its own lambda so none of them decides at run time
+    private static Code local(Access access, int slot)
+    {
+        switch (access)
+        {
+            case CELL: return environment -> ((Cell)environment.get(slot)).get();
+            case UPVALUE: return environment -> environment.getUpvalue(slot).get();
+            default: return environment -> environment.get(slot);
+        }
+    }
+}
@@ -1,65 +1,103 @@
 package me.shakedkod.lox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 public class Environment
 {
-    private final Environment _enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    // every global name gets a slot in this table the first time the resolver sees it, so the
+    // slots stay the same for every line of the REPL and the names are never hashed while running
+    private static final Map<String, Integer> _globalSlots = new HashMap<>();
+    // the value of a global slot whose name was resolved but never defined
+    private static final Object UNDEFINED = new Object();
+
+    // the globals hold their values in the slots of the table above. Every other Environment is the
+    // frame of one call (or of a block at the top level), holding its locals in the slots the resolver gave them
+    private Object[] values;
+    private final Object[] _slots;
+    // the cells captured by the closure whose frame this is, for its code to read and for
+    // the functions it declares to capture in turn
+    private final Cell[] _upvalues;
 
     public Environment()
     {
-        _enclosing = null;
+        values = new Object[0];
+        _slots = null;
+        _upvalues = null;
     }
 
-    public Environment(Environment enclosing)
+    // a frame that takes slots as its storage
+    public Environment(Object[] slots, Cell[] upvalues)
     {
-        _enclosing = enclosing;
+        values = null;
+        _slots = slots;
+        _upvalues = upvalues;
     }
 
-    public void define(String name, Object value)
+    public static int globalSlot(String name)
     {
-        values.put(name, value);
+        Integer slot = _globalSlots.get(name);
+        if (slot != null) return slot;
+
+        _globalSlots.put(name, _globalSlots.size());
+        return _globalSlots.size() - 1;
     }
 
-    public Object get(Token name)
+    public void define(String name, Object value)
     {
-        if (values.containsKey(name.getLexeme()))
-            return values.get(name.getLexeme());
+        defineGlobal(globalSlot(name), value);
+    }
 
-        if (_enclosing != null) return _enclosing.get(name);
+    public void defineGlobal(int slot, Object value)
+    {
+        if (slot >= values.length)
+        {
+            int length = values.length;
+            values = Arrays.copyOf(values, Math.max(_globalSlots.size(), 2 * length));
+            Arrays.fill(values, length, values.length, UNDEFINED);
+        }
+        values[slot] = value;
+    }
 
-        throw new RuntimeError(name,
-                "Undefined variable '" + name.getLexeme() + "'.");
+    // blocks share their function's frame and can run the same declaration again, so a
+    // declaration defines straight into the slot the resolver gave it
+    public void define(int slot, Object value)
+    {
+        _slots[slot] = value;
     }
 
-    public Object getAt(int distance, String name)
+    // empties the frame for another run of the same function
+    void clear()
     {
-        return ancestor(distance).values.get(name);
+        Arrays.fill(_slots, null);
     }
 
-    Environment ancestor(int distance)
+    // a name the REPL resolved after the table last grew is past its end, and undefined too
+    public Object getGlobal(int slot, Token name)
     {
-        Environment environment = this;
+        if (slot < values.length && values[slot] != UNDEFINED)
+            return values[slot];
 
-        for (int i = 0; i < distance; i++)
-            environment = environment.getEnclosing();
+        throw new RuntimeError(name,
+                "Undefined variable '" + name.getLexeme() + "'.");
+    }
 
-        return environment;
+    public Object get(int slot)
+    {
+        return _slots[slot];
     }
 
-    public void assign(Token name, Object value)
+    public Cell getUpvalue(int index)
     {
-        if (values.containsKey(name.getLexeme()))
-        {
-            values.put(name.getLexeme(), value);
-            return;
-        }
+        return _upvalues[index];
+    }
 
-        if (_enclosing != null)
+    public void assignGlobal(int slot, Token name, Object value)
+    {
+        if (slot < values.length && values[slot] != UNDEFINED)
         {
-            _enclosing.assign(name, value);
+            values[slot] = value;
             return;
         }
 
@@ -67,14 +105,26 @@ public class Environment
                 "Undefined variable '" + name.getLexeme() + "'.");
     }
 
-    public void assignAt(int distance, Token name, Object value)
+    public void assign(int slot, Object value)
+    {
+        _slots[slot] = value;
+    }
+
+    // the cells a function declared in this frame captures
+    public Cell[] capture(Upvalue[] upvalues)
     {
-        ancestor(distance).values.put(name.getLexeme(), value);
+        Cell[] cells = new Cell[upvalues.length];
+        for (int i = 0; i < cells.length; i++)
+        {
+            Upvalue upvalue = upvalues[i];
+            cells[i] = upvalue.isLocal() ? (Cell)_slots[upvalue.getIndex()] : _upvalues[upvalue.getIndex()];
+        }
+        return cells;
     }
 
     // getters
-    public Environment getEnclosing()
+    public boolean isGlobal()
     {
-        return _enclosing;
+        return values != null;
     }
 }
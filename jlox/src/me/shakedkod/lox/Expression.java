@@ -2,15 +2,50 @@ package me.shakedkod.lox;
 
 import java.util.List;
 
-abstract class Expression
+public abstract sealed class Expression permits Expression.Assign, Expression.Binary, Expression.Call, Expression.CallGlobal, Expression.Compare, Expression.Get, Expression.Grouping, Expression.Hoisted, Expression.Increment, Expression.Inline, Expression.InlineMethod, Expression.Literal, Expression.Logical, Expression.Set, Expression.Super, Expression.This, Expression.Unary, Expression.Ternary, Expression.Variable
 {
-	interface Visitor<R>
+	public static final int ASSIGN = 0;
+	public static final int BINARY = 1;
+	public static final int CALL = 2;
+	public static final int CALLGLOBAL = 3;
+	public static final int COMPARE = 4;
+	public static final int GET = 5;
+	public static final int GROUPING = 6;
+	public static final int HOISTED = 7;
+	public static final int INCREMENT = 8;
+	public static final int INLINE = 9;
+	public static final int INLINEMETHOD = 10;
+	public static final int LITERAL = 11;
+	public static final int LOGICAL = 12;
+	public static final int SET = 13;
+	public static final int SUPER = 14;
+	public static final int THIS = 15;
+	public static final int UNARY = 16;
+	public static final int TERNARY = 17;
+	public static final int VARIABLE = 18;
+
+	private final int _kind;
+
+	protected Expression(int kind)
+	{
+		_kind = kind;
+	}
+
+	public final int getKind() { return _kind; }
+
+	public interface Visitor<R>
 	{
 		R visitAssignExpression(Assign expression);
 		R visitBinaryExpression(Binary expression);
 		R visitCallExpression(Call expression);
+		R visitCallGlobalExpression(CallGlobal expression);
+		R visitCompareExpression(Compare expression);
 		R visitGetExpression(Get expression);
 		R visitGroupingExpression(Grouping expression);
+		R visitHoistedExpression(Hoisted expression);
+		R visitIncrementExpression(Increment expression);
+		R visitInlineExpression(Inline expression);
+		R visitInlineMethodExpression(InlineMethod expression);
 		R visitLiteralExpression(Literal expression);
 		R visitLogicalExpression(Logical expression);
 		R visitSetExpression(Set expression);
@@ -21,44 +56,54 @@ abstract class Expression
 		R visitVariableExpression(Variable expression);
 	}
 
-	abstract <R> R accept(Visitor<R> visitor);
+	public abstract <R> R accept(Visitor<R> visitor);
 
-	static class Assign extends Expression
+	public static final class Assign extends Expression
 	{
 		private final Token _name;
 		private final Expression _value;
+		private Access _access = Access.GLOBAL;
+		private int _slot;
 
 		public Assign(Token name, Expression value)
 		{
+			super(ASSIGN);
 			_name = name;
 			_value = value;
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitAssignExpression(this);
 		}
 
 		public Token getName() { return _name; }
 		public Expression getValue() { return _value; }
+		public Access getAccess() { return _access; }
+		public void setAccess(Access access) { _access = access; }
+		public int getSlot() { return _slot; }
+		public void setSlot(int slot) { _slot = slot; }
 	}
 
-	static class Binary extends Expression
+	public static final class Binary extends Expression
 	{
 		private final Expression _left;
 		private final Token _operator;
 		private final Expression _right;
+		private boolean _numeric;
+		private BinaryNode _node = BinaryNode.UNINITIALIZED;
 
 		public Binary(Expression left, Token operator, Expression right)
 		{
+			super(BINARY);
 			_left = left;
 			_operator = operator;
 			_right = right;
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitBinaryExpression(this);
 		}
@@ -66,9 +111,13 @@ abstract class Expression
 		public Expression getLeft() { return _left; }
 		public Token getOperator() { return _operator; }
 		public Expression getRight() { return _right; }
+		public boolean getNumeric() { return _numeric; }
+		public void setNumeric(boolean numeric) { _numeric = numeric; }
+		public BinaryNode getNode() { return _node; }
+		public void setNode(BinaryNode node) { _node = node; }
 	}
 
-	static class Call extends Expression
+	public static final class Call extends Expression
 	{
 		private final Expression _callee;
 		private final Token _paren;
@@ -76,13 +125,14 @@ abstract class Expression
 
 		public Call(Expression callee, Token paren, List<Expression> arguments)
 		{
+			super(CALL);
 			_callee = callee;
 			_paren = paren;
 			_arguments = arguments;
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitCallExpression(this);
 		}
@@ -92,38 +142,102 @@ abstract class Expression
 		public List<Expression> getArguments() { return _arguments; }
 	}
 
-	static class Get extends Expression
+	public static final class CallGlobal extends Expression
+	{
+		private final Token _name;
+		private final Token _paren;
+		private final List<Expression> _arguments;
+		private int _slot;
+
+		public CallGlobal(Token name, Token paren, List<Expression> arguments)
+		{
+			super(CALLGLOBAL);
+			_name = name;
+			_paren = paren;
+			_arguments = arguments;
+		}
+
+		@Override
+		public <R> R accept(Visitor<R> visitor)
+		{
+			return visitor.visitCallGlobalExpression(this);
+		}
+
+		public Token getName() { return _name; }
+		public Token getParen() { return _paren; }
+		public List<Expression> getArguments() { return _arguments; }
+		public int getSlot() { return _slot; }
+		public void setSlot(int slot) { _slot = slot; }
+	}
+
+	public static final class Compare extends Expression
+	{
+		private final Token _name;
+		private final Token _operator;
+		private final double _constant;
+		private Access _access = Access.GLOBAL;
+		private int _slot;
+
+		public Compare(Token name, Token operator, double constant)
+		{
+			super(COMPARE);
+			_name = name;
+			_operator = operator;
+			_constant = constant;
+		}
+
+		@Override
+		public <R> R accept(Visitor<R> visitor)
+		{
+			return visitor.visitCompareExpression(this);
+		}
+
+		public Token getName() { return _name; }
+		public Token getOperator() { return _operator; }
+		public double getConstant() { return _constant; }
+		public Access getAccess() { return _access; }
+		public void setAccess(Access access) { _access = access; }
+		public int getSlot() { return _slot; }
+		public void setSlot(int slot) { _slot = slot; }
+	}
+
+	public static final class Get extends Expression
 	{
 		private final Expression _object;
 		private final Token _name;
+		private PropertyCache _cache = new PropertyCache();
 
 		public Get(Expression object, Token name)
 		{
+			super(GET);
 			_object = object;
 			_name = name;
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitGetExpression(this);
 		}
 
 		public Expression getObject() { return _object; }
 		public Token getName() { return _name; }
+		public PropertyCache getCache() { return _cache; }
+		public void setCache(PropertyCache cache) { _cache = cache; }
 	}
 
-	static class Grouping extends Expression
+	public static final class Grouping extends Expression
 	{
 		private final Expression _expression;
 
 		public Grouping(Expression expression)
 		{
+			super(GROUPING);
 			_expression = expression;
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitGroupingExpression(this);
 		}
@@ -131,17 +245,154 @@ abstract class Expression
 		public Expression getExpression() { return _expression; }
 	}
 
-	static class Literal extends Expression
+	public static final class Hoisted extends Expression
+	{
+		private final Token _name;
+		private final Expression _expression;
+		private int _slot;
+
+		public Hoisted(Token name, Expression expression)
+		{
+			super(HOISTED);
+			_name = name;
+			_expression = expression;
+		}
+
+		@Override
+		public <R> R accept(Visitor<R> visitor)
+		{
+			return visitor.visitHoistedExpression(this);
+		}
+
+		public Token getName() { return _name; }
+		public Expression getExpression() { return _expression; }
+		public int getSlot() { return _slot; }
+		public void setSlot(int slot) { _slot = slot; }
+	}
+
+	public static final class Increment extends Expression
+	{
+		private final Token _name;
+		private final Token _operator;
+		private final double _delta;
+		private Access _access = Access.GLOBAL;
+		private int _slot;
+
+		public Increment(Token name, Token operator, double delta)
+		{
+			super(INCREMENT);
+			_name = name;
+			_operator = operator;
+			_delta = delta;
+		}
+
+		@Override
+		public <R> R accept(Visitor<R> visitor)
+		{
+			return visitor.visitIncrementExpression(this);
+		}
+
+		public Token getName() { return _name; }
+		public Token getOperator() { return _operator; }
+		public double getDelta() { return _delta; }
+		public Access getAccess() { return _access; }
+		public void setAccess(Access access) { _access = access; }
+		public int getSlot() { return _slot; }
+		public void setSlot(int slot) { _slot = slot; }
+	}
+
+	public static final class Inline extends Expression
+	{
+		private final Token _name;
+		private final Token _paren;
+		private final List<Expression> _arguments;
+		private final Expression _body;
+		private int _slot;
+		private int[] _slots;
+		private Statement.Function _function;
+
+		public Inline(Token name, Token paren, List<Expression> arguments, Expression body)
+		{
+			super(INLINE);
+			_name = name;
+			_paren = paren;
+			_arguments = arguments;
+			_body = body;
+		}
+
+		@Override
+		public <R> R accept(Visitor<R> visitor)
+		{
+			return visitor.visitInlineExpression(this);
+		}
+
+		public Token getName() { return _name; }
+		public Token getParen() { return _paren; }
+		public List<Expression> getArguments() { return _arguments; }
+		public Expression getBody() { return _body; }
+		public int getSlot() { return _slot; }
+		public void setSlot(int slot) { _slot = slot; }
+		public int[] getSlots() { return _slots; }
+		public void setSlots(int[] slots) { _slots = slots; }
+		public Statement.Function getFunction() { return _function; }
+		public void setFunction(Statement.Function function) { _function = function; }
+	}
+
+	public static final class InlineMethod extends Expression
+	{
+		private final Expression _object;
+		private final Token _name;
+		private final Token _paren;
+		private final List<Expression> _arguments;
+		private final Expression _body;
+		private PropertyCache _cache = new PropertyCache();
+		private int _receiverSlot;
+		private int[] _slots;
+		private Statement.Function _function;
+
+		public InlineMethod(Expression object, Token name, Token paren, List<Expression> arguments, Expression body)
+		{
+			super(INLINEMETHOD);
+			_object = object;
+			_name = name;
+			_paren = paren;
+			_arguments = arguments;
+			_body = body;
+		}
+
+		@Override
+		public <R> R accept(Visitor<R> visitor)
+		{
+			return visitor.visitInlineMethodExpression(this);
+		}
+
+		public Expression getObject() { return _object; }
+		public Token getName() { return _name; }
+		public Token getParen() { return _paren; }
+		public List<Expression> getArguments() { return _arguments; }
+		public Expression getBody() { return _body; }
+		public PropertyCache getCache() { return _cache; }
+		public void setCache(PropertyCache cache) { _cache = cache; }
+		public int getReceiverSlot() { return _receiverSlot; }
+		public void setReceiverSlot(int receiverSlot) { _receiverSlot = receiverSlot; }
+		public int[] getSlots() { return _slots; }
+		public void setSlots(int[] slots) { _slots = slots; }
+		public Statement.Function getFunction() { return _function; }
+		public void setFunction(Statement.Function function) { _function = function; }
+	}
+
+	public static final class Literal extends Expression
 	{
 		private final Object _value;
 
 		public Literal(Object value)
 		{
+			super(LITERAL);
 			_value = value;
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitLiteralExpression(this);
 		}
@@ -149,7 +400,7 @@ abstract class Expression
 		public Object getValue() { return _value; }
 	}
 
-	static class Logical extends Expression
+	public static final class Logical extends Expression
 	{
 		private final Expression _left;
 		private final Token _operator;
@@ -157,13 +408,14 @@ abstract class Expression
 
 		public Logical(Expression left, Token operator, Expression right)
 		{
+			super(LOGICAL);
 			_left = left;
 			_operator = operator;
 			_right = right;
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitLogicalExpression(this);
 		}
@@ -173,21 +425,23 @@ abstract class Expression
 		public Expression getRight() { return _right; }
 	}
 
-	static class Set extends Expression
+	public static final class Set extends Expression
 	{
 		private final Expression _object;
 		private final Token _name;
 		private final Expression _value;
+		private PropertyCache _cache = new PropertyCache();
 
 		public Set(Expression object, Token name, Expression value)
 		{
+			super(SET);
 			_object = object;
 			_name = name;
 			_value = value;
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitSetExpression(this);
 		}
@@ -195,60 +449,80 @@ abstract class Expression
 		public Expression getObject() { return _object; }
 		public Token getName() { return _name; }
 		public Expression getValue() { return _value; }
+		public PropertyCache getCache() { return _cache; }
+		public void setCache(PropertyCache cache) { _cache = cache; }
 	}
 
-	static class Super extends Expression
+	public static final class Super extends Expression
 	{
 		private final Token _keyword;
 		private final Token _method;
+		private Access _access = Access.GLOBAL;
+		private int _slot;
+		private This _receiver;
 
 		public Super(Token keyword, Token method)
 		{
+			super(SUPER);
 			_keyword = keyword;
 			_method = method;
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitSuperExpression(this);
 		}
 
 		public Token getKeyword() { return _keyword; }
 		public Token getMethod() { return _method; }
+		public Access getAccess() { return _access; }
+		public void setAccess(Access access) { _access = access; }
+		public int getSlot() { return _slot; }
+		public void setSlot(int slot) { _slot = slot; }
+		public This getReceiver() { return _receiver; }
+		public void setReceiver(This receiver) { _receiver = receiver; }
 	}
 
-	static class This extends Expression
+	public static final class This extends Expression
 	{
 		private final Token _keyword;
+		private Access _access = Access.GLOBAL;
+		private int _slot;
 
 		public This(Token keyword)
 		{
+			super(THIS);
 			_keyword = keyword;
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitThisExpression(this);
 		}
 
 		public Token getKeyword() { return _keyword; }
+		public Access getAccess() { return _access; }
+		public void setAccess(Access access) { _access = access; }
+		public int getSlot() { return _slot; }
+		public void setSlot(int slot) { _slot = slot; }
 	}
 
-	static class Unary extends Expression
+	public static final class Unary extends Expression
 	{
 		private final Token _operator;
 		private final Expression _right;
 
 		public Unary(Token operator, Expression right)
 		{
+			super(UNARY);
 			_operator = operator;
 			_right = right;
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitUnaryExpression(this);
 		}
@@ -257,7 +531,7 @@ abstract class Expression
 		public Expression getRight() { return _right; }
 	}
 
-	static class Ternary extends Expression
+	public static final class Ternary extends Expression
 	{
 		private final Token _operator;
 		private final Expression _condition;
@@ -266,6 +540,7 @@ abstract class Expression
 
 		public Ternary(Token operator, Expression condition, Expression ifTrue, Expression ifFalse)
 		{
+			super(TERNARY);
 			_operator = operator;
 			_condition = condition;
 			_ifTrue = ifTrue;
@@ -273,7 +548,7 @@ abstract class Expression
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitTernaryExpression(this);
 		}
@@ -284,22 +559,29 @@ abstract class Expression
 		public Expression getIfFalse() { return _ifFalse; }
 	}
 
-	static class Variable extends Expression
+	public static final class Variable extends Expression
 	{
 		private final Token _name;
+		private Access _access = Access.GLOBAL;
+		private int _slot;
 
 		public Variable(Token name)
 		{
+			super(VARIABLE);
 			_name = name;
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitVariableExpression(this);
 		}
 
 		public Token getName() { return _name; }
+		public Access getAccess() { return _access; }
+		public void setAccess(Access access) { _access = access; }
+		public int getSlot() { return _slot; }
+		public void setSlot(int slot) { _slot = slot; }
 	}
 
 }
@@ -1,15 +1,32 @@
 package me.shakedkod.lox;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-public class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void>
+public class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Object>
 {
+    // a statement returns NORMAL when control falls through to the next one, and
+    // anything else (nil included) when a return statement ran
+    static final Object NORMAL = new Object();
+
+    // what a call in tail position completes with: the call itself is left pending here,
+    // for the trampoline in LoxFunction.invoke to run once the caller's frame is gone
+    static final Object TAIL_CALL = new Object();
+    LoxFunction tailFunction;
+    LoxInstance tailReceiver;
+    Object[] tailArguments;
+
     final Environment globals = new Environment();
     private Environment environment = globals;
-    private final Map<Expression, Integer> locals = new HashMap<>();
+
+    // --dispatch=switch: nodes are dispatched with one switch on their kind instead of
+    // accept() and a visit call, two virtual calls that go megamorphic in a real program
+    private static boolean _isSwitchDispatch = false;
+
+    // --visit-stats: every node the tree-walker evaluates or executes is counted
+    private static boolean _isCountingVisits = false;
+    private static long _visits = 0;
 
     public Interpreter()
     {
@@ -18,7 +35,7 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
             public int arity() { return 0; }
 
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments)
+            public Object call(Interpreter interpreter, Object[] arguments)
             {
                 return System.currentTimeMillis() / 1000.0;
             }
@@ -41,7 +58,7 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
         }
     }
 
-    private String stringify(Object object)
+    public static String stringify(Object object)
     {
         if (object == null) return "nil";
 
@@ -60,7 +77,7 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
 
     // Functions & Classes & More
     @Override
-    public Void visitClassStatement(Statement.Class statement)
+    public Object visitClassStatement(Statement.Class statement)
     {
         Object superclass = null;
         if (statement.getSuperclass() != null)
@@ -71,18 +88,22 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
                         "Superclass must be a class.");
         }
 
-        environment.define(statement.getName().getLexeme(), null);
+        // a class whose methods refer to it needs its Cell before the methods capture it
+        if (statement.getCaptured()) define(statement.getSlot(), true, null);
 
-        if (statement.getSuperclass() != null)
+        // "super" is a local that every method using it captures; at the top level it
+        // gets a frame of its own
+        Environment enclosing = environment;
+        if (superclass != null)
         {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            if (environment.isGlobal()) environment = new Environment(new Object[1], null);
+            environment.define(statement.getSuperSlot(), new Cell(superclass));
         }
 
         Map<String, LoxFunction> methods = new HashMap<>();
         for (Statement.Function method : statement.getMethods())
         {
-            LoxFunction function = new LoxFunction(method, environment,
+            LoxFunction function = new LoxFunction(method, environment.capture(method.getUpvalues()), true,
                     method.getName().getLexeme().equals("init"));
             methods.put(method.getName().getLexeme(), function);
         }
@@ -90,88 +111,118 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
         Map<String, LoxFunction> staticMethods = new HashMap<>();
         for (Statement.Function method : statement.getStaticMethods())
         {
-            LoxFunction function = new LoxFunction(method, environment, false);
+            LoxFunction function = new LoxFunction(method, environment.capture(method.getUpvalues()), true, false);
             staticMethods.put(method.getName().getLexeme(), function);
         }
 
         LoxClass klass = new LoxClass(statement.getName().getLexeme(), (LoxClass)superclass, staticMethods, methods);
 
-        if (superclass != null) environment = environment.getEnclosing();
+        environment = enclosing;
 
-        environment.assign(statement.getName(), klass);
-        return null;
+        if (statement.getCaptured()) ((Cell)environment.get(statement.getSlot())).set(klass);
+        else define(statement.getSlot(), false, klass);
+        return NORMAL;
     }
 
     @Override
-    public Void visitFunctionStatement(Statement.Function statement)
+    public Object visitFunctionStatement(Statement.Function statement)
     {
-        LoxFunction function = new LoxFunction(statement, environment, false);
-        environment.define(statement.getName().getLexeme(), function);
-        return null;
+        // a function that refers to itself needs its Cell before it can capture it
+        if (statement.getCaptured()) define(statement.getSlot(), true, null);
+
+        LoxFunction function = new LoxFunction(statement, environment.capture(statement.getUpvalues()), false, false);
+
+        if (statement.getCaptured()) ((Cell)environment.get(statement.getSlot())).set(function);
+        else define(statement.getSlot(), false, function);
+        return NORMAL;
     }
 
     // STATEMENTS
     @Override
-    public Void visitBlockStatement(Statement.Block statement)
+    public Object visitBlockStatement(Statement.Block statement)
     {
-        executeBlock(statement.getStatements(), new Environment(environment));
-        return null;
+        // see Resolver.visitBlockStatement
+        if (statement.getFrameSize() == -1)
+            return executeStatements(statement.getStatements());
+
+        return executeBlock(statement.getStatements(),
+                new Environment(new Object[statement.getFrameSize()], null));
     }
 
     @Override
-    public Void visitExprStatement(Statement.Expr statement)
+    public Object visitExprStatement(Statement.Expr statement)
     {
         if (Lox._isREPL) return visitPrintStatement(new Statement.Print(statement.getExpression()));
 
         evaluate(statement.getExpression());
-        return null;
+        return NORMAL;
     }
 
     @Override
-    public Void visitPrintStatement(Statement.Print statement)
+    public Object visitPrintStatement(Statement.Print statement)
     {
         Object value = evaluate(statement.getExpression());
         System.out.println(stringify(value));
-        return null;
+        return NORMAL;
     }
 
     @Override
-    public Void visitReturnStatement(Statement.Return statement)
+    public Object visitReturnStatement(Statement.Return statement)
     {
-        Object value = null;
-        if (statement.getValue() != null) value = evaluate(statement.getValue());
-
-        throw new Return(value);
+        if (statement.getValue() == null) return null;
+        if (statement.getTail()) return call((Expression.Call)statement.getValue(), true);
+        return evaluate(statement.getValue());
     }
 
     @Override
-    public Void visitVarStatement(Statement.Var statement)
+    public Object visitVarStatement(Statement.Var statement)
     {
         Object value = null;
         if (statement.getInitializer() != null)
             value = evaluate(statement.getInitializer());
 
-        environment.define(statement.getName().getLexeme(), value);
-        return null;
+        define(statement.getSlot(), statement.getCaptured(), value);
+        return NORMAL;
     }
 
     @Override
-    public Void visitIfStatement(Statement.If statement)
+    public Object visitIfStatement(Statement.If statement)
     {
-        if (isTruthy(evaluate(statement.getCondition())))
-            execute(statement.getThenBranch());
+        if (evaluateBoolean(statement.getCondition()))
+            return execute(statement.getThenBranch());
         else if (statement.getElseBranch() != null)
-            execute(statement.getElseBranch());
+            return execute(statement.getElseBranch());
 
-        return null;
+        return NORMAL;
     }
 
     @Override
-    public Void visitWhileStatement(Statement.While statement)
+    public Object visitForStatement(Statement.For statement)
     {
-        while (isTruthy(evaluate(statement.getCondition())))
-            execute(statement.getBody());
-        return null;
+        // a frame of its own only at the top level, as for a block
+        if (statement.getFrameSize() == -1)
+            return executeFor(statement);
+
+        Environment previous = this.environment;
+        try
+        {
+            this.environment = new Environment(new Object[statement.getFrameSize()], null);
+            return executeFor(statement);
+        }
+        finally {
+            this.environment = previous;
+        }
+    }
+
+    @Override
+    public Object visitWhileStatement(Statement.While statement)
+    {
+        while (evaluateBoolean(statement.getCondition()))
+        {
+            Object completion = execute(statement.getBody());
+            if (completion != NORMAL) return completion;
+        }
+        return NORMAL;
     }
 
     // EXPRESSIONS
@@ -190,15 +241,17 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
     @Override
     public Object visitUnaryExpression(Expression.Unary expression)
     {
-        Object right = evaluate(expression.getRight());
-
         switch (expression.getOperator().getType())
         {
             case MINUS:
+                if (isUnboxed(expression.getRight()))
+                    return -evaluateDouble((Expression.Binary)expression.getRight());
+
+                Object right = evaluate(expression.getRight());
                 checkNumberOperand(expression.getOperator(), right);
                 return -(double)right;
             case BANG:
-                return !isTruthy(right);
+                return !evaluateBoolean(expression.getRight());
         }
 
         // Unreachable
@@ -208,63 +261,22 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
     @Override
     public Object visitBinaryExpression(Expression.Binary expression)
     {
+        // arithmetic that can only give a number is evaluated unboxed; every other site runs
+        // the node it specialized itself into from the operands it has seen
+        if (expression.getNumeric()) return evaluateDouble(expression);
+
         Object left = evaluate(expression.getLeft());
         Object right = evaluate(expression.getRight());
-
-        switch (expression.getOperator().getType())
-        {
-            // equality
-            case BANG_EQUAL: return !isEqual(left, right);
-            case EQUAL_EQUAL: return isEqual(left, right);
-            // comparison operators
-            case GREATER:
-                checkNumberOperands(expression.getOperator(), left, right);
-                return (double)left > (double)right;
-            case GREATER_EQUAL:
-                checkNumberOperands(expression.getOperator(), left, right);
-                return (double)left >= (double)right;
-            case LESS:
-                checkNumberOperands(expression.getOperator(), left, right);
-                return (double)left < (double)right;
-            case LESS_EQUAL:
-                checkNumberOperands(expression.getOperator(), left, right);
-                return (double)left <= (double)right;
-            // arithmetic operators
-            case MINUS:
-                checkNumberOperands(expression.getOperator(), left, right);
-                return (double)left - (double)right;
-            case PLUS:
-                if (left instanceof Double && right instanceof Double)
-                    return (double)left + (double)right;
-                if (left instanceof String && right instanceof String)
-                    return (String)left + (String)right;
-
-                throw new RuntimeError(expression.getOperator(),
-                        "Operands must be two numbers or two strings");
-            case SLASH:
-                checkNumberOperands(expression.getOperator(), left, right);
-                if ((double)right == (double)0) throw new RuntimeError(expression.getOperator(),
-                        "Dividing by 0 is not allowed.");
-                return (double)left / (double)right;
-            case STAR:
-                checkNumberOperands(expression.getOperator(), left, right);
-                return (double)left * (double)right;
-        }
-
-        // Unreachable
-        return null;
+        return expression.getNode().execute(expression, left, right);
     }
 
     @Override
     public Object visitTernaryExpression(Expression.Ternary expression)
     {
-        Object condition = evaluate(expression.getCondition());
-        Object truthy = evaluate(expression.getIfTrue());
-        Object falsy = evaluate(expression.getIfFalse());
-
-        if ((boolean)condition)
-            return truthy;
-        return falsy;
+        // only the branch that was picked is evaluated
+        if (evaluateBoolean(expression.getCondition()))
+            return evaluate(expression.getIfTrue());
+        return evaluate(expression.getIfFalse());
     }
 
     @Override
@@ -292,16 +304,15 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
                     "Only instances have fields.");
 
         Object value = evaluate(expression.getValue());
-        ((LoxInstance)object).set(expression.getName(), value);
+        expression.getCache().set((LoxInstance)object, expression.getName(), value);
         return value;
     }
 
     @Override
     public Object visitSuperExpression(Expression.Super expression)
     {
-        int distance = locals.get(expression);
-        LoxClass superclass = (LoxClass)environment.getAt(distance, "super");
-        LoxInstance object = (LoxInstance)environment.getAt(distance - 1, "this");
+        LoxClass superclass = (LoxClass)lookUp(expression.getAccess(), expression.getSlot(), expression.getKeyword());
+        LoxInstance object = (LoxInstance)evaluate(expression.getReceiver());
 
         LoxFunction method = superclass.findMethod(expression.getMethod().getLexeme());
 
@@ -321,57 +332,169 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
     @Override
     public Object visitThisExpression(Expression.This expression)
     {
-        return lookUpVariable(expression.getKeyword(), expression);
+        return lookUp(expression.getAccess(), expression.getSlot(), expression.getKeyword());
     }
 
     @Override
     public Object visitVariableExpression(Expression.Variable expression)
     {
-        return lookUpVariable(expression.getName(), expression);
+        return lookUp(expression.getAccess(), expression.getSlot(), expression.getName());
     }
 
     @Override
     public Object visitAssignExpression(Expression.Assign expression)
     {
         Object value = evaluate(expression.getValue());
-        Integer distance = locals.get(expression);
+        assign(expression.getAccess(), expression.getSlot(), expression.getName(), value);
+        return value;
+    }
 
-        if (distance != null)
-            environment.assignAt(distance, expression.getName(), value);
-        else
-            globals.assign(expression.getName(), value);
+    @Override
+    public Object visitIncrementExpression(Expression.Increment expression)
+    {
+        Object value = lookUp(expression.getAccess(), expression.getSlot(), expression.getName());
+        Object result = increment(value, expression.getDelta(), expression.getOperator());
+        assign(expression.getAccess(), expression.getSlot(), expression.getName(), result);
+        return result;
+    }
+
+    @Override
+    public Object visitCompareExpression(Expression.Compare expression)
+    {
+        return test(expression);
+    }
 
+    // a hoisted expression is evaluated where it first runs and read from its temporary after
+    // that; a value of nil can't be told from a temporary not set yet, so it is evaluated again
+    @Override
+    public Object visitHoistedExpression(Expression.Hoisted expression)
+    {
+        Object value = environment.get(expression.getSlot());
+        if (value == null)
+        {
+            value = evaluate(expression.getExpression());
+            environment.define(expression.getSlot(), hoistable(value));
+        }
         return value;
     }
 
     @Override
     public Object visitCallExpression(Expression.Call expression)
     {
+        return call(expression, false);
+    }
+
+    @Override
+    public Object visitCallGlobalExpression(Expression.CallGlobal expression)
+    {
+        Object callee = globals.getGlobal(expression.getSlot(), expression.getName());
+        return call(callee, evaluateArguments(expression.getArguments()), expression.getParen(), false);
+    }
+
+    private Object call(Expression.Call expression, boolean isTail)
+    {
+        if (expression.getCallee() instanceof Expression.Get)
+            return invoke(expression, (Expression.Get)expression.getCallee(), isTail);
+
         Object callee = evaluate(expression.getCallee());
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expression argument : expression.getArguments())
-            arguments.add(evaluate(argument));
+        Object[] arguments = evaluateArguments(expression.getArguments());
+
+        return call(callee, arguments, expression.getParen(), isTail);
+    }
+
+    private Object call(Object callee, Object[] arguments, Token paren, boolean isTail)
+    {
+        if (!(callee instanceof LoxCallable))
+            throw new RuntimeError(paren,
+                    "Can only call functions and classes.");
+
+        LoxCallable function = (LoxCallable)callee;
+        if (arguments.length != function.arity())
+            throw new RuntimeError(paren,
+                "Expected " + function.arity() + " arguments but got " + arguments.length + "."
+            );
+
+        if (isTail && function instanceof LoxFunction)
+            return ((LoxFunction)function).tailCall(this, arguments);
+        return function.call(this, arguments);
+    }
+
+    // a method call, obj.method(...), runs the method on obj without binding it first
+    private Object invoke(Expression.Call expression, Expression.Get property, boolean isTail)
+    {
+        Object object = evaluate(property.getObject());
+        return invoke(object, property.getName(), property.getCache(), expression.getArguments(),
+                expression.getParen(), isTail);
+    }
+
+    private Object invoke(Object object, Token name, PropertyCache cache, List<Expression> argumentList, Token paren,
+                          boolean isTail)
+    {
+        if (!(object instanceof LoxInstance))
+            throw new RuntimeError(name,
+                    "Only instances have properties.");
+
+        LoxInstance instance = (LoxInstance)object;
+        LoxFunction method = cache.findMethod(instance, name);
+        Object callee = method != null ? method : cache.get(instance, name);
+
+        Object[] arguments = evaluateArguments(argumentList);
 
         if (!(callee instanceof LoxCallable))
-            throw new RuntimeError(expression.getParen(),
+            throw new RuntimeError(paren,
                     "Can only call functions and classes.");
 
         LoxCallable function = (LoxCallable)callee;
-        if (arguments.size() != function.arity())
-            throw new RuntimeError(expression.getParen(),
-                "Expected " + function.arity() + " arguments but got " + arguments.size() + "."
+        if (arguments.length != function.arity())
+            throw new RuntimeError(paren,
+                    "Expected " + function.arity() + " arguments but got " + arguments.length + "."
             );
 
+        if (method != null && isTail) return tailCall(method, instance, arguments);
+        if (method != null) return method.invoke(this, instance, arguments);
+        if (isTail && function instanceof LoxFunction)
+            return ((LoxFunction)function).tailCall(this, arguments);
         return function.call(this, arguments);
     }
 
+    // an inlined call site, guarded as the Optimizer describes
+    @Override
+    public Object visitInlineExpression(Expression.Inline expression)
+    {
+        Object callee = globals.getGlobal(expression.getSlot(), expression.getName());
+        if (expression.getSlots() == null || !(callee instanceof LoxFunction) ||
+                ((LoxFunction)callee).getDeclaration() != expression.getFunction())
+            return call(callee, evaluateArguments(expression.getArguments()), expression.getParen(), false);
+
+        return inline(expression.getSlots(), expression.getArguments(), expression.getBody());
+    }
+
+    // an inlined method, guarded on the method the receiver finds
+    @Override
+    public Object visitInlineMethodExpression(Expression.InlineMethod expression)
+    {
+        Object object = evaluate(expression.getObject());
+        if (expression.getSlots() != null && object instanceof LoxInstance)
+        {
+            LoxFunction method = expression.getCache().findMethod((LoxInstance)object, expression.getName());
+            if (method != null && method.getDeclaration() == expression.getFunction())
+            {
+                environment.define(expression.getReceiverSlot(), object);
+                return inline(expression.getSlots(), expression.getArguments(), expression.getBody());
+            }
+        }
+
+        return invoke(object, expression.getName(), expression.getCache(), expression.getArguments(),
+                expression.getParen(), false);
+    }
+
     @Override
     public Object visitGetExpression(Expression.Get expression)
     {
         Object object = evaluate(expression.getObject());
         if (object instanceof LoxInstance)
-            return ((LoxInstance)object).get(expression.getName());
+            return expression.getCache().get((LoxInstance)object, expression.getName());
 
 
         throw new RuntimeError(expression.getName(),
@@ -383,42 +506,337 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
     //----------------------//
     private Object evaluate(Expression expression)
     {
+        if (_isCountingVisits) _visits++;
+        if (_isSwitchDispatch) return dispatch(expression);
         return expression.accept(this);
     }
 
-    private void execute(Statement statement)
+    private Object dispatch(Expression expression)
+    {
+        switch (expression.getKind())
+        {
+            case Expression.ASSIGN: return visitAssignExpression((Expression.Assign)expression);
+            case Expression.BINARY: return visitBinaryExpression((Expression.Binary)expression);
+            case Expression.CALL: return visitCallExpression((Expression.Call)expression);
+            case Expression.CALLGLOBAL: return visitCallGlobalExpression((Expression.CallGlobal)expression);
+            case Expression.COMPARE: return visitCompareExpression((Expression.Compare)expression);
+            case Expression.GET: return visitGetExpression((Expression.Get)expression);
+            case Expression.GROUPING: return visitGroupingExpression((Expression.Grouping)expression);
+            case Expression.HOISTED: return visitHoistedExpression((Expression.Hoisted)expression);
+            case Expression.INCREMENT: return visitIncrementExpression((Expression.Increment)expression);
+            case Expression.INLINE: return visitInlineExpression((Expression.Inline)expression);
+            case Expression.INLINEMETHOD: return visitInlineMethodExpression((Expression.InlineMethod)expression);
+            case Expression.LITERAL: return visitLiteralExpression((Expression.Literal)expression);
+            case Expression.LOGICAL: return visitLogicalExpression((Expression.Logical)expression);
+            case Expression.SET: return visitSetExpression((Expression.Set)expression);
+            case Expression.SUPER: return visitSuperExpression((Expression.Super)expression);
+            case Expression.THIS: return visitThisExpression((Expression.This)expression);
+            case Expression.UNARY: return visitUnaryExpression((Expression.Unary)expression);
+            case Expression.TERNARY: return visitTernaryExpression((Expression.Ternary)expression);
+            default: return visitVariableExpression((Expression.Variable)expression);
+        }
+    }
+
+    private Object inline(int[] slots, List<Expression> arguments, Expression body)
+    {
+        for (int i = 0; i < slots.length; i++)
+            environment.define(slots[i], evaluate(arguments.get(i)));
+        return evaluate(body);
+    }
+
+    Object tailCall(LoxFunction function, LoxInstance receiver, Object[] arguments)
+    {
+        tailFunction = function;
+        tailReceiver = receiver;
+        tailArguments = arguments;
+        return TAIL_CALL;
+    }
+
+    // the arguments of a call, evaluated straight into the array the callee receives
+    private Object[] evaluateArguments(List<Expression> arguments)
     {
-        statement.accept(this);
+        Object[] values = new Object[arguments.size()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = evaluate(arguments.get(i));
+        return values;
     }
 
-    public void resolve(Expression expression, int depth)
+    // arithmetic the Resolver marked as always giving a number (or failing), which is
+    // evaluated as a primitive so nested arithmetic never boxes its intermediate results
+    private static boolean isUnboxed(Expression expression)
     {
-        locals.put(expression, depth);
+        return expression instanceof Expression.Binary && ((Expression.Binary)expression).getNumeric();
     }
 
-    public void executeBlock(List<Statement> statements, Environment environment)
+    private double evaluateDouble(Expression.Binary expression)
+    {
+        double left = leftOperand(expression);
+        double right = rightOperand(expression);
+
+        switch (expression.getOperator().getType())
+        {
+            case PLUS: return left + right;
+            case MINUS: return left - right;
+            case SLASH:
+                if (right == (double)0) throw new RuntimeError(expression.getOperator(),
+                        "Dividing by 0 is not allowed.");
+                return left / right;
+            case STAR: return left * right;
+        }
+
+        // Unreachable
+        return 0;
+    }
+
+    // evaluates a condition; comparisons never box their operands or their result
+    private boolean evaluateBoolean(Expression expression)
+    {
+        if (expression instanceof Expression.Binary)
+        {
+            Expression.Binary binary = (Expression.Binary)expression;
+            switch (binary.getOperator().getType())
+            {
+                case GREATER: return leftOperand(binary) > rightOperand(binary);
+                case GREATER_EQUAL: return leftOperand(binary) >= rightOperand(binary);
+                case LESS: return leftOperand(binary) < rightOperand(binary);
+                case LESS_EQUAL: return leftOperand(binary) <= rightOperand(binary);
+            }
+        }
+        else if (expression instanceof Expression.Compare)
+            return test((Expression.Compare)expression);
+        else if (expression instanceof Expression.Grouping)
+            return evaluateBoolean(((Expression.Grouping)expression).getExpression());
+        else if (expression instanceof Expression.Unary &&
+                ((Expression.Unary)expression).getOperator().getType() == TokenType.BANG)
+            return !evaluateBoolean(((Expression.Unary)expression).getRight());
+        else if (expression instanceof Expression.Logical)
+        {
+            Expression.Logical logical = (Expression.Logical)expression;
+            if (logical.getOperator().getType() == TokenType.OR)
+                return evaluateBoolean(logical.getLeft()) || evaluateBoolean(logical.getRight());
+            return evaluateBoolean(logical.getLeft()) && evaluateBoolean(logical.getRight());
+        }
+
+        return isTruthy(evaluate(expression));
+    }
+
+    // the operands of a numeric binary operator. a bad left operand is only reported once the
+    // right one has been evaluated, the same order the boxed path checks them in.
+    private double leftOperand(Expression.Binary binary)
+    {
+        if (isUnboxed(binary.getLeft())) return evaluateDouble((Expression.Binary)binary.getLeft());
+
+        Object left = evaluate(binary.getLeft());
+        if (left instanceof Double) return (double)left;
+
+        evaluate(binary.getRight());
+        throw operandsError(binary.getOperator());
+    }
+
+    private double rightOperand(Expression.Binary binary)
+    {
+        if (isUnboxed(binary.getRight())) return evaluateDouble((Expression.Binary)binary.getRight());
+
+        Object right = evaluate(binary.getRight());
+        if (right instanceof Double) return (double)right;
+
+        throw operandsError(binary.getOperator());
+    }
+
+    // a fused comparison of a variable against a number, with no operand nodes to visit
+    private boolean test(Expression.Compare expression)
+    {
+        Object value = lookUp(expression.getAccess(), expression.getSlot(), expression.getName());
+        if (!(value instanceof Double)) throw operandsError(expression.getOperator());
+        return compare(expression.getOperator().getType(), (double)value, expression.getConstant());
+    }
+
+    // the value of a fused `x = x + delta`; operator is the one written, for the error
+    public static Object increment(Object value, double delta, Token operator)
+    {
+        if (!(value instanceof Double)) throw operandsError(operator);
+        return (double)value + delta;
+    }
+
+    // what a Hoisted slot keeps of value; a method read with Get is bound anew on every read, and
+    // nil is what an empty slot holds, so neither is kept and both are evaluated again
+    public static Object hoistable(Object value)
+    {
+        return value instanceof LoxFunction ? null : value;
+    }
+
+    static RuntimeError operandsError(Token operator)
+    {
+        if (operator.getType() == TokenType.PLUS)
+            return new RuntimeError(operator, "Operands must be two numbers or two strings");
+        return new RuntimeError(operator, "Operands must be numbers.");
+    }
+
+    private Object executeFor(Statement.For statement)
+    {
+        if (statement.getInitializer() != null) execute(statement.getInitializer());
+
+        if (statement.getCounter())
+        {
+            int slot = ((Statement.Var)statement.getInitializer()).getSlot();
+            Object start = environment.get(slot);
+            if (start instanceof Double) return executeCounter(statement, slot, (double)start);
+        }
+
+        while (statement.getCondition() == null || evaluateBoolean(statement.getCondition()))
+        {
+            Object completion = execute(statement.getBody());
+            if (completion != NORMAL) return completion;
+            if (statement.getIncrement() != null) evaluate(statement.getIncrement());
+        }
+        return NORMAL;
+    }
+
+    // a loop the Resolver marked as a counter, see Resolver.isCounter
+    private Object executeCounter(Statement.For statement, int slot, double counter)
+    {
+        Expression.Binary condition = (Expression.Binary)statement.getCondition();
+        TokenType comparison = condition.getOperator().getType();
+        double step = statement.getStep();
+
+        while (compare(comparison, counter, rightOperand(condition)))
+        {
+            Object completion = execute(statement.getBody());
+            if (completion != NORMAL) return completion;
+
+            counter += step;
+            environment.assign(slot, counter);
+        }
+        return NORMAL;
+    }
+
+    public static boolean compare(TokenType comparison, double left, double right)
+    {
+        switch (comparison)
+        {
+            case GREATER: return left > right;
+            case GREATER_EQUAL: return left >= right;
+            case LESS: return left < right;
+            default: return left <= right;
+        }
+    }
+
+    private Object execute(Statement statement)
+    {
+        if (_isCountingVisits) _visits++;
+        if (_isSwitchDispatch) return dispatch(statement);
+        return statement.accept(this);
+    }
+
+    private Object dispatch(Statement statement)
+    {
+        switch (statement.getKind())
+        {
+            case Statement.BLOCK: return visitBlockStatement((Statement.Block)statement);
+            case Statement.CLASS: return visitClassStatement((Statement.Class)statement);
+            case Statement.EXPR: return visitExprStatement((Statement.Expr)statement);
+            case Statement.FOR: return visitForStatement((Statement.For)statement);
+            case Statement.FUNCTION: return visitFunctionStatement((Statement.Function)statement);
+            case Statement.IF: return visitIfStatement((Statement.If)statement);
+            case Statement.PRINT: return visitPrintStatement((Statement.Print)statement);
+            case Statement.RETURN: return visitReturnStatement((Statement.Return)statement);
+            case Statement.VAR: return visitVarStatement((Statement.Var)statement);
+            default: return visitWhileStatement((Statement.While)statement);
+        }
+    }
+
+    private Object lookUp(Access access, int slot, Token name)
+    {
+        switch (access)
+        {
+            case LOCAL: return environment.get(slot);
+            case CELL: return ((Cell)environment.get(slot)).get();
+            case UPVALUE: return environment.getUpvalue(slot).get();
+            default: return globals.getGlobal(slot, name);
+        }
+    }
+
+    private void assign(Access access, int slot, Token name, Object value)
+    {
+        switch (access)
+        {
+            case LOCAL:
+                environment.assign(slot, value);
+                break;
+            case CELL:
+                ((Cell)environment.get(slot)).set(value);
+                break;
+            case UPVALUE:
+                environment.getUpvalue(slot).set(value);
+                break;
+            default:
+                globals.assignGlobal(slot, name, value);
+        }
+    }
+
+    // a local that a closure captures is defined in a fresh Cell
+    private void define(int slot, boolean isCaptured, Object value)
+    {
+        if (environment.isGlobal())
+            environment.defineGlobal(slot, value);
+        else if (isCaptured)
+            environment.define(slot, new Cell(value));
+        else
+            environment.define(slot, value);
+    }
+
+    public static void setSwitchDispatch(boolean isSwitchDispatch)
+    {
+        _isSwitchDispatch = isSwitchDispatch;
+    }
+
+    public static void setCountingVisits(boolean isCountingVisits)
+    {
+        _isCountingVisits = isCountingVisits;
+    }
+
+    public static String visitStatistics()
+    {
+        return "node visits: " + _visits;
+    }
+
+    public Environment getGlobals()
+    {
+        return globals;
+    }
+
+    // the completion of the first statement that did not fall through, or NORMAL
+    public Object executeBlock(List<Statement> statements, Environment environment)
     {
         Environment previous = this.environment;
         try
         {
             this.environment = environment;
-
-            for (Statement statement : statements)
-                execute(statement);
+            return executeStatements(statements);
         }
         finally {
             this.environment = previous;
         }
     }
 
-    private boolean isTruthy(Object object)
+    private Object executeStatements(List<Statement> statements)
+    {
+        for (Statement statement : statements)
+        {
+            Object completion = execute(statement);
+            if (completion != NORMAL) return completion;
+        }
+        return NORMAL;
+    }
+
+    public static boolean isTruthy(Object object)
     {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
         return true;
     }
 
-    private boolean isEqual(Object a, Object b)
+    public static boolean isEqual(Object a, Object b)
     {
         if (a == null && b == null) return true;
         if (a == null) return false;
@@ -426,25 +844,15 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
         return a.equals(b);
     }
 
-    private void checkNumberOperand(Token operator, Object operand)
+    public static void checkNumberOperand(Token operator, Object operand)
     {
         if (operand instanceof Double) return;
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right)
+    public static void checkNumberOperands(Token operator, Object left, Object right)
     {
         if (left instanceof Double && right instanceof Double) return;
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
-
-    private Object lookUpVariable(Token name, Expression expression)
-    {
-        Integer distance = locals.get(expression);
-
-        if (distance != null)
-            return environment.getAt(distance, name.getLexeme());
-        else
-            return globals.get(name);
-    }
 }
@@ -0,0 +1,440 @@
+package me.shakedkod.lox;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Finds the expressions of a loop that have the same value on every run through it, for
+// the Optimizer to hoist. Such an expression has no side effects, and nothing it reads
+// can change in the loop: no variable it reads is assigned or declared there, and no
+// property it reads is set there. A loop that calls anything could change any global,
+// captured variable or property that way, so then only plain locals count. Functions
+// and classes the loop declares are not looked into, their code only runs when called.
+final class LoopInvariants implements Expression.Visitor<Void>, Statement.Visitor<Void>
+{
+    private final Set<String> _assigned = new HashSet<>();
+    private final Set<String> _properties = new HashSet<>();
+    // the name of the first thing the loop calls, null when it calls nothing
+    private String _call = null;
+    // the expressions the loop runs, each whole, the condition and increment first
+    private final List<Expression> _roots = new ArrayList<>();
+    private int _headerSize = 0;
+    private final List<Expression> _invariants = new ArrayList<>();
+    // what keeps the candidate being looked at from being invariant; a call explains the most,
+    // an assignment the least
+    private String _reason = null;
+    private int _rank = -1;
+    // why the first candidates of the body, and of the condition and increment, are not invariant
+    private String _bodyReason = null;
+    private String _headerReason = null;
+
+    LoopInvariants(Expression condition, Expression increment, Statement body)
+    {
+        if (condition != null) root(condition);
+        if (increment != null) root(increment);
+        _headerSize = _roots.size();
+        body.accept(this);
+
+        for (int i = 0; i < _roots.size(); i++)
+            find(_roots.get(i), i < _headerSize);
+    }
+
+    // the largest invariant parts of the loop that are worth a temporary of their own
+    List<Expression> getInvariants()
+    {
+        return _invariants;
+    }
+
+    // why the loop has no invariants; the condition always reads what the loop changes, so
+    // a candidate of the body tells more
+    String getReason()
+    {
+        if (_bodyReason != null) return _bodyReason;
+        return _headerReason != null ? _headerReason : "nothing in it has the same value on every run";
+    }
+
+    // Functions & Classes & More
+    @Override
+    public Void visitClassStatement(Statement.Class statement)
+    {
+        _assigned.add(statement.getName().getLexeme());
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStatement(Statement.Function statement)
+    {
+        _assigned.add(statement.getName().getLexeme());
+        return null;
+    }
+
+    // STATEMENTS
+    @Override
+    public Void visitBlockStatement(Statement.Block statement)
+    {
+        for (Statement inner : statement.getStatements())
+            inner.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitExprStatement(Statement.Expr statement)
+    {
+        root(statement.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitForStatement(Statement.For statement)
+    {
+        if (statement.getInitializer() != null) statement.getInitializer().accept(this);
+        if (statement.getCondition() != null) root(statement.getCondition());
+        if (statement.getIncrement() != null) root(statement.getIncrement());
+        statement.getBody().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStatement(Statement.If statement)
+    {
+        root(statement.getCondition());
+        statement.getThenBranch().accept(this);
+        if (statement.getElseBranch() != null) statement.getElseBranch().accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(Statement.Print statement)
+    {
+        root(statement.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStatement(Statement.Return statement)
+    {
+        if (statement.getValue() != null) root(statement.getValue());
+        return null;
+    }
+
+    @Override
+    public Void visitVarStatement(Statement.Var statement)
+    {
+        _assigned.add(statement.getName().getLexeme());
+        if (statement.getInitializer() != null) root(statement.getInitializer());
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(Statement.While statement)
+    {
+        root(statement.getCondition());
+        statement.getBody().accept(this);
+        return null;
+    }
+
+    // EXPRESSIONS
+    @Override
+    public Void visitLiteralExpression(Expression.Literal expression)
+    {
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpression(Expression.Grouping expression)
+    {
+        return expression.getExpression().accept(this);
+    }
+
+    @Override
+    public Void visitUnaryExpression(Expression.Unary expression)
+    {
+        return expression.getRight().accept(this);
+    }
+
+    @Override
+    public Void visitBinaryExpression(Expression.Binary expression)
+    {
+        expression.getLeft().accept(this);
+        return expression.getRight().accept(this);
+    }
+
+    @Override
+    public Void visitTernaryExpression(Expression.Ternary expression)
+    {
+        expression.getCondition().accept(this);
+        expression.getIfTrue().accept(this);
+        return expression.getIfFalse().accept(this);
+    }
+
+    @Override
+    public Void visitLogicalExpression(Expression.Logical expression)
+    {
+        expression.getLeft().accept(this);
+        return expression.getRight().accept(this);
+    }
+
+    @Override
+    public Void visitVariableExpression(Expression.Variable expression)
+    {
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpression(Expression.Assign expression)
+    {
+        _assigned.add(expression.getName().getLexeme());
+        return expression.getValue().accept(this);
+    }
+
+    @Override
+    public Void visitIncrementExpression(Expression.Increment expression)
+    {
+        _assigned.add(expression.getName().getLexeme());
+        return null;
+    }
+
+    @Override
+    public Void visitCompareExpression(Expression.Compare expression)
+    {
+        return null;
+    }
+
+    @Override
+    public Void visitHoistedExpression(Expression.Hoisted expression)
+    {
+        return expression.getExpression().accept(this);
+    }
+
+    @Override
+    public Void visitCallExpression(Expression.Call expression)
+    {
+        Expression callee = expression.getCallee();
+        if (callee instanceof Expression.Variable)
+            call(((Expression.Variable)callee).getName());
+        else if (callee instanceof Expression.Get)
+            call(((Expression.Get)callee).getName());
+        else if (callee instanceof Expression.Super)
+            call(((Expression.Super)callee).getMethod());
+        else
+            call(expression.getParen());
+
+        callee.accept(this);
+        for (Expression argument : expression.getArguments())
+            argument.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitCallGlobalExpression(Expression.CallGlobal expression)
+    {
+        call(expression.getName());
+        for (Expression argument : expression.getArguments())
+            argument.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitInlineExpression(Expression.Inline expression)
+    {
+        call(expression.getName());
+        for (Expression argument : expression.getArguments())
+            argument.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitInlineMethodExpression(Expression.InlineMethod expression)
+    {
+        call(expression.getName());
+        expression.getObject().accept(this);
+        for (Expression argument : expression.getArguments())
+            argument.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpression(Expression.Get expression)
+    {
+        return expression.getObject().accept(this);
+    }
+
+    @Override
+    public Void visitSetExpression(Expression.Set expression)
+    {
+        _properties.add(expression.getName().getLexeme());
+        expression.getObject().accept(this);
+        return expression.getValue().accept(this);
+    }
+
+    @Override
+    public Void visitSuperExpression(Expression.Super expression)
+    {
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpression(Expression.This expression)
+    {
+        return null;
+    }
+
+    //----------------------//  helper methods
+    private void root(Expression expression)
+    {
+        _roots.add(expression);
+        expression.accept(this);
+    }
+
+    private void call(Token name)
+    {
+        if (_call == null) _call = name.getLexeme();
+    }
+
+    private void find(Expression expression, boolean isHeader)
+    {
+        _reason = null;
+        _rank = -1;
+        if (isInvariant(expression))
+        {
+            if (isWorthHoisting(expression)) _invariants.add(expression);
+            return;
+        }
+
+        // a candidate only some variable or property kept from being hoisted
+        if (isPure(expression) && isWorthHoisting(expression))
+        {
+            if (isHeader && _headerReason == null) _headerReason = _reason;
+            if (!isHeader && _bodyReason == null) _bodyReason = _reason;
+        }
+
+        for (Expression child : children(expression))
+            find(child, isHeader);
+    }
+
+    private boolean isInvariant(Expression expression)
+    {
+        if (expression instanceof Expression.Literal || expression instanceof Expression.This) return true;
+        if (expression instanceof Expression.Variable)
+        {
+            Expression.Variable variable = (Expression.Variable)expression;
+            if (_assigned.contains(variable.getName().getLexeme()))
+                return block("it assigns '" + variable.getName().getLexeme() + "'", 0);
+            if (variable.getAccess() != Access.LOCAL && _call != null)
+                return block("it calls '" + _call + "', which could change '" + variable.getName().getLexeme() + "'", 2);
+            return true;
+        }
+        if (expression instanceof Expression.Get)
+        {
+            Expression.Get get = (Expression.Get)expression;
+            boolean isObjectInvariant = isInvariant(get.getObject());
+            if (_properties.contains(get.getName().getLexeme()))
+                return block("it sets the property '" + get.getName().getLexeme() + "'", 1);
+            if (_call != null)
+                return block("it calls '" + _call + "', which could change any property", 2);
+            return isObjectInvariant;
+        }
+        if (expression instanceof Expression.Grouping || expression instanceof Expression.Unary ||
+                expression instanceof Expression.Binary || expression instanceof Expression.Logical ||
+                expression instanceof Expression.Ternary)
+        {
+            // every child is looked at, for the reason to come from the one that explains the most
+            boolean isInvariant = true;
+            for (Expression child : children(expression))
+                isInvariant &= isInvariant(child);
+            return isInvariant;
+        }
+
+        // a call or an assignment of some kind
+        return false;
+    }
+
+    // whether expression has no calls or assignments in it, so it is invariant unless
+    // something it reads changes
+    private static boolean isPure(Expression expression)
+    {
+        if (expression instanceof Expression.Literal || expression instanceof Expression.This ||
+                expression instanceof Expression.Variable)
+            return true;
+        if (expression instanceof Expression.Get || expression instanceof Expression.Grouping ||
+                expression instanceof Expression.Unary || expression instanceof Expression.Binary ||
+                expression instanceof Expression.Logical || expression instanceof Expression.Ternary)
+        {
+            for (Expression child : children(expression))
+                if (!isPure(child)) return false;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean block(String reason, int rank)
+    {
+        if (rank > _rank)
+        {
+            _reason = reason;
+            _rank = rank;
+        }
+        return false;
+    }
+
+    // a read, or a literal, costs no more than reading a temporary would; an expression with
+    // nothing but literals in it is folded instead
+    private static boolean isWorthHoisting(Expression expression)
+    {
+        if (expression instanceof Expression.Grouping)
+            return isWorthHoisting(((Expression.Grouping)expression).getExpression());
+        if (expression instanceof Expression.Literal || expression instanceof Expression.Variable ||
+                expression instanceof Expression.This)
+            return false;
+        return reads(expression);
+    }
+
+    private static boolean reads(Expression expression)
+    {
+        if (expression instanceof Expression.Variable || expression instanceof Expression.This) return true;
+        for (Expression child : children(expression))
+            if (reads(child)) return true;
+        return false;
+    }
+
+    private static List<Expression> children(Expression expression)
+    {
+        List<Expression> children = new ArrayList<>();
+        if (expression instanceof Expression.Grouping)
+            children.add(((Expression.Grouping)expression).getExpression());
+        else if (expression instanceof Expression.Unary)
+            children.add(((Expression.Unary)expression).getRight());
+        else if (expression instanceof Expression.Binary)
+        {
+            children.add(((Expression.Binary)expression).getLeft());
+            children.add(((Expression.Binary)expression).getRight());
+        }
+        else if (expression instanceof Expression.Logical)
+        {
+            children.add(((Expression.Logical)expression).getLeft());
+            children.add(((Expression.Logical)expression).getRight());
+        }
+        else if (expression instanceof Expression.Ternary)
+        {
+            children.add(((Expression.Ternary)expression).getCondition());
+            children.add(((Expression.Ternary)expression).getIfTrue());
+            children.add(((Expression.Ternary)expression).getIfFalse());
+        }
+        else if (expression instanceof Expression.Get)
+            children.add(((Expression.Get)expression).getObject());
+        else if (expression instanceof Expression.Set)
+        {
+            children.add(((Expression.Set)expression).getObject());
+            children.add(((Expression.Set)expression).getValue());
+        }
+        else if (expression instanceof Expression.Assign)
+            children.add(((Expression.Assign)expression).getValue());
+        else if (expression instanceof Expression.Call)
+        {
+            children.add(((Expression.Call)expression).getCallee());
+            children.addAll(((Expression.Call)expression).getArguments());
+        }
+        return children;
+    }
+}
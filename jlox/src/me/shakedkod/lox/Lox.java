@@ -1,35 +1,94 @@
 package me.shakedkod.lox;
 
+import me.shakedkod.lox.jit.Tier;
+import me.shakedkod.lox.vm.Compiler;
+import me.shakedkod.lox.vm.ObjFunction;
+import me.shakedkod.lox.vm.VM;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Lox
 {
     private static final Interpreter interpreter = new Interpreter();
+    private static final ClosureCompiler closureCompiler = new ClosureCompiler(interpreter);
+    private static final VM vm = new VM();
+    private static Engine _engine = Engine.TREE;
+    private static boolean _printCacheStats = false;
+    private static boolean _printVisitStats = false;
     static boolean _isREPL = false;
     static boolean _hadError = false;
     static boolean _hadRuntimeError = false;
 
+    private enum Engine
+    {
+        TREE,
+        CLOSURE,
+        VM
+    }
+
     public static void main(String[] args) throws IOException
     {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
+        List<String> paths = new ArrayList<>();
+        for (String arg : args)
+        {
+            if (arg.equals("--engine=tree")) _engine = Engine.TREE;
+            else if (arg.equals("--engine=closure")) _engine = Engine.CLOSURE;
+            else if (arg.equals("--engine=vm")) _engine = Engine.VM;
+            else if (arg.equals("--dispatch=visitor")) Interpreter.setSwitchDispatch(false);
+            else if (arg.equals("--dispatch=switch")) Interpreter.setSwitchDispatch(true);
+            else if (arg.equals("--no-jit")) Tier.setEnabled(false);
+            else if (arg.equals("--no-fuse")) Optimizer.setFusion(false);
+            else if (arg.equals("--no-inline")) Optimizer.setInlining(false);
+            else if (arg.equals("--loop-report")) Optimizer.setLoopReport(true);
+            else if (arg.equals("--cache-stats"))
+            {
+                _printCacheStats = true;
+                PropertyCache.setCounting(true);
+            }
+            else if (arg.equals("--visit-stats"))
+            {
+                _printVisitStats = true;
+                Interpreter.setCountingVisits(true);
+            }
+            else if (arg.startsWith("--jit-threshold=") && isCount(arg.substring("--jit-threshold=".length())))
+                Tier.setThreshold(Integer.parseInt(arg.substring("--jit-threshold=".length())));
+            else if (arg.startsWith("--stack-budget=") && isCount(arg.substring("--stack-budget=".length())))
+                VM.setStackBudget(Integer.parseInt(arg.substring("--stack-budget=".length())));
+            else paths.add(arg);
+        }
+
+        if (paths.size() > 1 || (!paths.isEmpty() && paths.get(0).startsWith("--"))) {
+            System.out.println("Usage: jlox [--engine=tree|closure|vm] [--dispatch=visitor|switch] [--no-jit] [--jit-threshold=N] [--stack-budget=MB] [--no-fuse] [--no-inline] [--loop-report] [--cache-stats] [--visit-stats] [script]");
             System.exit(64);
-        } else if (args.length == 1)
-            runFile(args[0]);
+        } else if (paths.size() == 1)
+            runFile(paths.get(0));
         else
             runPrompt();
     }
 
+    private static boolean isCount(String text)
+    {
+        return text.matches("[1-9][0-9]{0,8}");
+    }
+
+    public static boolean isREPL()
+    {
+        return _isREPL;
+    }
+
     public static void runFile(String path) throws IOException
     {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
         run(new String(bytes, Charset.defaultCharset()));
+        if (_printCacheStats) System.err.println(PropertyCache.statistics());
+        if (_printVisitStats) System.err.println(Interpreter.visitStatistics());
 
         if (_hadError) System.exit(65);
         if (_hadRuntimeError) System.exit(70);
@@ -46,7 +105,11 @@ public class Lox
             String line = reader.readLine();
 
             if (line == null)
+            {
+                if (_printCacheStats) System.err.println(PropertyCache.statistics());
+                if (_printVisitStats) System.err.println(Interpreter.visitStatistics());
                 break;
+            }
 
             run(line);
             _hadError = false;
@@ -69,12 +132,39 @@ public class Lox
 
         // Resolving
         if (_hadError) return;
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver();
         resolver.resolve(statements);
 
+        // Optimizing
+        // the program is checked as written, so code the optimizer drops still reports its
+        // errors; the optimized copy is then resolved on its own for the engines to run
+        if (_hadError) return;
+        statements = new Optimizer().optimize(statements);
+        new Resolver().resolve(statements);
+
         // Interpreting
         if (_hadError) return;
-        interpreter.interpret(statements);
+        if (_engine == Engine.CLOSURE)
+            closureCompiler.interpret(statements);
+        else if (_engine == Engine.VM)
+            runOnVM(statements);
+        else
+            interpreter.interpret(statements);
+    }
+
+    private static void runOnVM(List<Statement> statements)
+    {
+        ObjFunction script = new Compiler(vm, _isREPL).compile(statements);
+        if (script == null) return;
+
+        try
+        {
+            vm.interpret(script);
+        }
+        catch (RuntimeError error)
+        {
+            runtimeError(error);
+        }
     }
 
     // ERROR HANDLING
@@ -83,7 +173,7 @@ public class Lox
         report(line, "", message);
     }
 
-    static void error(Token token, String message)
+    public static void error(Token token, String message)
     {
         if (token.getType() == TokenType.EOF)
             report(token.getLine(), " at end", message);
@@ -94,7 +184,7 @@ public class Lox
     static void runtimeError(RuntimeError error)
     {
         System.err.println(error.getMessage() +
-                "\n[line " + error.getToken().getLine() + "]");
+                "\n[line " + error.getLine() + "]");
         _hadRuntimeError = true;
     }
 
@@ -1,9 +1,9 @@
 package me.shakedkod.lox;
 
-import java.util.List;
-
-interface LoxCallable
+public interface LoxCallable
 {
     int arity();
-    Object call(Interpreter interpreter, List<Object> arguments);
+    // arguments holds exactly arity() values and is handed over to the callee, which may
+    // keep it as the storage of its frame, so every call passes a fresh array
+    Object call(Interpreter interpreter, Object[] arguments);
 }
@@ -1,14 +1,22 @@
 package me.shakedkod.lox;
 
-import java.util.List;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 public class LoxClass extends LoxInstance implements LoxCallable
 {
     private final String _name;
     private final LoxClass _superclass;
+
+    // classes never change once they are defined, so every method table already holds
+    // the inherited methods and a lookup is one probe however deep the hierarchy is
     private final Map<String, LoxFunction> _methods;
     private final Map<String, LoxFunction> _staticMethods;
+    private final LoxFunction _initializer;
+
+    // every instance starts out with this shape and shares the ones it transitions to
+    private final Shape _instanceShape = new Shape();
 
     public LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> staticMethods,
                     Map<String, LoxFunction> methods)
@@ -16,30 +24,27 @@ public class LoxClass extends LoxInstance implements LoxCallable
         super(null);
         _name = name;
         _superclass = superclass;
-        _staticMethods = staticMethods;
-        _methods = methods;
+        _staticMethods = flatten(superclass != null ? superclass._staticMethods : null, staticMethods);
+        _methods = flatten(superclass != null ? superclass._methods : null, methods);
+        _initializer = _methods.get("init");
     }
 
-    public LoxFunction findMethod(String name)
+    private static Map<String, LoxFunction> flatten(Map<String, LoxFunction> inherited,
+                                                    Map<String, LoxFunction> own)
     {
-        if (_methods.containsKey(name))
-            return _methods.get(name);
-
-        if (_superclass != null)
-            return _superclass.findMethod(name);
+        Map<String, LoxFunction> table = inherited != null ? new HashMap<>(inherited) : new HashMap<>();
+        table.putAll(own);
+        return Collections.unmodifiableMap(table);
+    }
 
-        return null;
+    public LoxFunction findMethod(String name)
+    {
+        return _methods.get(name);
     }
 
     public LoxFunction findStaticMethod(String name)
     {
-        if (_staticMethods.containsKey(name))
-            return _staticMethods.get(name);
-
-        if (_superclass != null)
-            return _superclass.findStaticMethod(name);
-
-        return null;
+        return _staticMethods.get(name);
     }
 
     @Override
@@ -53,13 +58,12 @@ public class LoxClass extends LoxInstance implements LoxCallable
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments)
+    public Object call(Interpreter interpreter, Object[] arguments)
     {
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
 
-        if (initializer != null)
-            initializer.bind(instance).call(interpreter, arguments);
+        if (_initializer != null)
+            _initializer.invoke(interpreter, instance, arguments);
 
         return instance;
     }
@@ -67,9 +71,8 @@ public class LoxClass extends LoxInstance implements LoxCallable
     @Override
     public int arity()
     {
-        LoxFunction initializer = findMethod("init");
-        if (initializer == null) return 0;
-        return initializer.arity();
+        if (_initializer == null) return 0;
+        return _initializer.arity();
     }
 
     @Override
@@ -87,4 +90,9 @@ public class LoxClass extends LoxInstance implements LoxCallable
     {
         return _superclass;
     }
+
+    public Shape getInstanceShape()
+    {
+        return _instanceShape;
+    }
 }
@@ -1,47 +1,142 @@
 package me.shakedkod.lox;
 
-import java.util.List;
+import me.shakedkod.lox.jit.CompiledFunction;
 
 public class LoxFunction implements LoxCallable
 {
-    private final Environment _closure;
+    // the cells of the variables the function captured from the functions around it
+    private final Cell[] _upvalues;
     private final Statement.Function _declaration;
+    // a method keeps `this` in slot 0 of its own scope, ahead of the parameters
+    private final boolean _isMethod;
     private final boolean _isInitializer;
+    private final ClosureCompiler.Code[] _compiledBody;
+    // the `this` of a bound method, null otherwise
+    private final LoxInstance _receiver;
 
-    public LoxFunction(Statement.Function declaration, Environment closure, boolean isInitializer)
+    public LoxFunction(Statement.Function declaration, Cell[] upvalues, boolean isMethod, boolean isInitializer)
     {
-        _closure = closure;
+        this(declaration, upvalues, isMethod, isInitializer, null);
+    }
+
+    // a function created by the ClosureCompiler runs its pre-compiled body instead of the tree
+    public LoxFunction(Statement.Function declaration, Cell[] upvalues, boolean isMethod, boolean isInitializer,
+                       ClosureCompiler.Code[] compiledBody)
+    {
+        this(declaration, upvalues, isMethod, isInitializer, compiledBody, null);
+    }
+
+    private LoxFunction(Statement.Function declaration, Cell[] upvalues, boolean isMethod, boolean isInitializer,
+                        ClosureCompiler.Code[] compiledBody, LoxInstance receiver)
+    {
+        _upvalues = upvalues;
         _declaration = declaration;
+        _isMethod = isMethod;
         _isInitializer = isInitializer;
+        _compiledBody = compiledBody;
+        _receiver = receiver;
     }
 
     public LoxFunction bind(LoxInstance instance)
     {
-        Environment environment = new Environment(_closure);
-        environment.define("this", instance);
-        return new LoxFunction(_declaration, environment, _isInitializer);
+        return new LoxFunction(_declaration, _upvalues, _isMethod, _isInitializer, _compiledBody, instance);
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments)
+    public Object call(Interpreter interpreter, Object[] arguments)
+    {
+        return invoke(interpreter, _receiver, arguments);
+    }
+
+    // leaves the call for the trampoline of the function that is returning it
+    public Object tailCall(Interpreter interpreter, Object[] arguments)
     {
-        Environment environment = new Environment(_closure);
+        return interpreter.tailCall(this, _receiver, arguments);
+    }
 
-        for (int i = 0; i < _declaration.getParams().size(); i++)
-            environment.define(_declaration.getParams().get(i).getLexeme(), arguments.get(i));
+    // calls a method on receiver without binding it first; the arguments are already checked.
+    // calls in tail position come back as TAIL_CALL and run here, one after the other, so
+    // tail recursion takes no Java stack and reuses one frame for the whole loop
+    public Object invoke(Interpreter interpreter, LoxInstance receiver, Object[] arguments)
+    {
+        LoxFunction function = this;
+        Environment frame = null;
 
-        try
+        while (true)
         {
-            interpreter.executeBlock(_declaration.getBody(), environment);
+            Object completion;
+            CompiledFunction code = function._declaration.getTier().code(function._declaration, function._isMethod);
+            if (code != null)
+            {
+                completion = code.call(interpreter, function._upvalues, receiver, arguments);
+                frame = null;
+            }
+            else
+            {
+                frame = function.frame(frame, receiver, arguments);
+                completion = function.execute(interpreter, frame);
+            }
+
+            if (completion != Interpreter.TAIL_CALL)
+                return function._isInitializer ? receiver : completion;
+
+            LoxFunction next = interpreter.tailFunction;
+            if (!function.canReuse(next)) frame = null;
+            function = next;
+            receiver = interpreter.tailReceiver;
+            arguments = interpreter.tailArguments;
+            interpreter.tailArguments = null;
         }
-        catch (Return returnValue)
+    }
+
+    private Object execute(Interpreter interpreter, Environment environment)
+    {
+        Object completion = _compiledBody != null
+                ? ClosureCompiler.run(_compiledBody, environment)
+                : interpreter.executeBlock(_declaration.getBody(), environment);
+        return completion == Interpreter.NORMAL ? null : completion;
+    }
+
+    // closures hold cells rather than frames, so the frame can take the next run of the same
+    // function as long as that run sees the same captured cells
+    private boolean canReuse(LoxFunction next)
+    {
+        return next._declaration == _declaration && next._upvalues == _upvalues;
+    }
+
+    // the arguments become the frame itself when they fill it exactly, otherwise they are
+    // copied once into a frame with room for the receiver and every local of the body
+    private Environment frame(Environment reused, LoxInstance receiver, Object[] arguments)
+    {
+        Environment frame;
+        int first = _isMethod ? 1 : 0;
+        if (reused != null)
+        {
+            frame = reused;
+            frame.clear();
+            if (_isMethod) frame.define(0, receiver);
+            for (int i = 0; i < arguments.length; i++)
+                frame.define(first + i, arguments[i]);
+        }
+        else if (!_isMethod && arguments.length == _declaration.getFrameSize())
+            frame = new Environment(arguments, _upvalues);
+        else
         {
-            if (_isInitializer) return _closure.getAt(0, "this");
-            return returnValue.getValue();
+            Object[] slots = new Object[_declaration.getFrameSize()];
+            if (_isMethod) slots[0] = receiver;
+            System.arraycopy(arguments, 0, slots, first, arguments.length);
+            frame = new Environment(slots, _upvalues);
         }
 
-        if (_isInitializer) return _closure.getAt(0, "this");
-        return null;
+        // a parameter or `this` that a closure captures lives in a cell of its own
+        for (int slot : _declaration.getCapturedSlots())
+            frame.define(slot, new Cell(frame.get(slot)));
+        return frame;
+    }
+
+    public Statement.Function getDeclaration()
+    {
+        return _declaration;
     }
 
     @Override
@@ -1,27 +1,38 @@
 package me.shakedkod.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class LoxInstance
 {
+    private static final Object[] NO_FIELDS = new Object[0];
+
     private LoxClass _klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    private Shape _shape;
+    private Object[] _fields = NO_FIELDS;
 
     public LoxInstance(LoxClass klass)
     {
         _klass = klass;
+        _shape = klass != null ? klass.getInstanceShape() : new Shape();
     }
 
     public void set(Token name, Object value)
     {
-        fields.put(name.getLexeme(), value);
+        int slot = _shape.slotOf(name.getLexeme());
+        if (slot == -1)
+        {
+            Shape next = _shape.with(name.getLexeme());
+            setField(next.size() - 1, next, value);
+        }
+        else
+            _fields[slot] = value;
     }
 
     public Object get(Token name)
     {
-        if (fields.containsKey(name.getLexeme()))
-            return fields.get(name.getLexeme());
+        int slot = _shape.slotOf(name.getLexeme());
+        if (slot != -1)
+            return _fields[slot];
 
         LoxFunction method = _klass.findMethod(name.getLexeme());
         if (method != null) return method.bind(this);
@@ -30,6 +41,32 @@ public class LoxInstance
                 "Undefined property '" + name.getLexeme() + "'.");
     }
 
+    // the fast paths of a PropertyCache; shape is the shape after the store
+    Object getField(int slot)
+    {
+        return _fields[slot];
+    }
+
+    void setField(int slot, Shape shape, Object value)
+    {
+        if (slot >= _fields.length)
+            _fields = Arrays.copyOf(_fields, Math.max(4, slot * 2));
+
+        _shape = shape;
+        _fields[slot] = value;
+    }
+
+    // getters
+    Shape getShape()
+    {
+        return _shape;
+    }
+
+    LoxClass getKlass()
+    {
+        return _klass;
+    }
+
     @Override
     public String toString() {
         return _klass.getName() + " instance";
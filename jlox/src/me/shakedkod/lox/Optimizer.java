@@ -0,0 +1,665 @@
+package me.shakedkod.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Folds the expressions whose operands are all literals, strips groupings, and drops
+// the branch of an if that can never run. The tree is copied, so the copy can be
+// resolved afresh. Anything that would fail at runtime (a division by 0, an operand
+// of the wrong type) is left as it is, to fail there with the same error.
+//
+// The most common shapes are then fused into a single node each: `x = x + 1` into an
+// Increment, `x < 10` into a Compare and `f(...)` on a global f into a CallGlobal, which
+// run in one visit what took three to five.
+//
+// Small functions are inlined into their callers: a global function or a method whose
+// body is just `return <expression>;` over its parameters (and `this`), with nothing
+// it could call. The first pass over the program counts the call sites of each one, and
+// the second copies the body into as many as the size of the body allows. An inlined
+// site still checks that it calls the function it inlined, and makes the call otherwise.
+//
+// The parts of a loop that have the same value on every run through it are hoisted into
+// temporaries declared just before it. A hoisted expression is still evaluated where it
+// first runs, so it fails there if it fails at all, and is only read back after that.
+public class Optimizer implements Expression.Visitor<Expression>, Statement.Visitor<Statement>
+{
+    // in nodes of the returned expression, and in nodes over all the sites of one function
+    private static final int MAX_INLINE_SIZE = 16;
+    private static final int MAX_INLINE_GROWTH = 256;
+
+    // --no-fuse: the tree is only folded
+    private static boolean _isFusionEnabled = true;
+    // --no-inline: every call stays a call
+    private static boolean _isInliningEnabled = true;
+    // --loop-report: every loop nothing could be hoisted out of is reported, with the reason
+    private static boolean _isReportingLoops = false;
+
+    private boolean _isFusing = _isFusionEnabled;
+
+    // the functions that could be inlined, by the name they are called by
+    private final Map<String, Statement.Function> _functions = new HashMap<>();
+    private final Map<String, Statement.Function> _methods = new HashMap<>();
+    private final Map<Statement.Function, Integer> _sizes = new HashMap<>();
+    private final Map<Statement.Function, Integer> _sites = new HashMap<>();
+    private boolean _isCountingSites = false;
+    // the copy made of every function, for the inlined sites to check against at runtime
+    private final Map<Statement.Function, Statement.Function> _copies = new HashMap<>();
+    private final List<Expression> _inlined = new ArrayList<>();
+
+    // the hoisted parts of the loops in the original tree, each with the name of its temporary
+    private final Map<Expression, Token> _hoisted = new IdentityHashMap<>();
+    private int _temporaries = 0;
+
+    public List<Statement> optimize(List<Statement> statements)
+    {
+        if (_isInliningEnabled) findCandidates(statements);
+        if (_functions.isEmpty() && _methods.isEmpty()) return optimizeAll(statements);
+
+        // the first pass only counts the call sites
+        _isCountingSites = true;
+        optimizeAll(statements);
+        _isCountingSites = false;
+        _copies.clear();
+        _hoisted.clear();
+
+        List<Statement> optimized = optimizeAll(statements);
+        for (Expression site : _inlined)
+        {
+            if (site instanceof Expression.Inline)
+                ((Expression.Inline)site).setFunction(_copies.get(((Expression.Inline)site).getFunction()));
+            else
+                ((Expression.InlineMethod)site).setFunction(
+                        _copies.get(((Expression.InlineMethod)site).getFunction()));
+        }
+        return optimized;
+    }
+
+    private List<Statement> optimizeAll(List<Statement> statements)
+    {
+        List<Statement> optimized = new ArrayList<>();
+        for (Statement statement : statements)
+        {
+            Statement result = optimize(statement);
+            if (result != null) optimized.add(result);
+        }
+        return optimized;
+    }
+
+    // Functions & Classes & More
+    @Override
+    public Statement visitClassStatement(Statement.Class statement)
+    {
+        Expression.Variable superclass = statement.getSuperclass() != null
+                ? new Expression.Variable(statement.getSuperclass().getName())
+                : null;
+
+        return new Statement.Class(statement.getName(), superclass,
+                optimizeMethods(statement.getStaticMethods()), optimizeMethods(statement.getMethods()));
+    }
+
+    @Override
+    public Statement visitFunctionStatement(Statement.Function statement)
+    {
+        Statement.Function copy = new Statement.Function(statement.getName(), statement.getParams(),
+                optimizeAll(statement.getBody()));
+        _copies.put(statement, copy);
+        return copy;
+    }
+
+    // STATEMENTS
+    @Override
+    public Statement visitBlockStatement(Statement.Block statement)
+    {
+        return new Statement.Block(optimizeAll(statement.getStatements()));
+    }
+
+    @Override
+    public Statement visitExprStatement(Statement.Expr statement)
+    {
+        return new Statement.Expr(optimize(statement.getExpression()));
+    }
+
+    @Override
+    public Statement visitForStatement(Statement.For statement)
+    {
+        List<Statement> temporaries = hoist(statement.getKeyword(), statement.getCondition(),
+                statement.getIncrement(), statement.getBody());
+        Statement initializer = statement.getInitializer() != null ? optimize(statement.getInitializer()) : null;
+
+        // the header is left unfused for the Resolver to recognize a counting loop in, which
+        // then runs faster still
+        boolean isFusing = _isFusing;
+        _isFusing = false;
+        Expression condition = statement.getCondition() != null ? optimize(statement.getCondition()) : null;
+        Expression increment = statement.getIncrement() != null ? optimize(statement.getIncrement()) : null;
+        _isFusing = isFusing;
+
+        return enclose(temporaries, new Statement.For(statement.getKeyword(), initializer, condition, increment,
+                branch(statement.getBody())));
+    }
+
+    @Override
+    public Statement visitIfStatement(Statement.If statement)
+    {
+        Expression condition = optimize(statement.getCondition());
+
+        // a constant condition leaves a single branch, or nothing at all
+        if (condition instanceof Expression.Literal)
+        {
+            if (Interpreter.isTruthy(((Expression.Literal)condition).getValue()))
+                return optimize(statement.getThenBranch());
+            return statement.getElseBranch() != null ? optimize(statement.getElseBranch()) : null;
+        }
+
+        Statement elseBranch = statement.getElseBranch() != null ? branch(statement.getElseBranch()) : null;
+        return new Statement.If(condition, branch(statement.getThenBranch()), elseBranch);
+    }
+
+    @Override
+    public Statement visitPrintStatement(Statement.Print statement)
+    {
+        return new Statement.Print(optimize(statement.getExpression()));
+    }
+
+    @Override
+    public Statement visitReturnStatement(Statement.Return statement)
+    {
+        // a call that is returned stays a Call, to still be made as a tail call
+        Expression value = null;
+        if (statement.getValue() instanceof Expression.Call)
+            value = copyCall((Expression.Call)statement.getValue());
+        else if (statement.getValue() != null)
+            value = optimize(statement.getValue());
+        return new Statement.Return(statement.getKeyword(), value);
+    }
+
+    @Override
+    public Statement visitVarStatement(Statement.Var statement)
+    {
+        Expression initializer = statement.getInitializer() != null ? optimize(statement.getInitializer()) : null;
+        return new Statement.Var(statement.getName(), initializer);
+    }
+
+    @Override
+    public Statement visitWhileStatement(Statement.While statement)
+    {
+        List<Statement> temporaries = hoist(statement.getKeyword(), statement.getCondition(), null,
+                statement.getBody());
+        return enclose(temporaries, new Statement.While(statement.getKeyword(), optimize(statement.getCondition()),
+                branch(statement.getBody())));
+    }
+
+    // EXPRESSIONS
+    @Override
+    public Expression visitLiteralExpression(Expression.Literal expression)
+    {
+        return expression;
+    }
+
+    @Override
+    public Expression visitGroupingExpression(Expression.Grouping expression)
+    {
+        return optimize(expression.getExpression());
+    }
+
+    @Override
+    public Expression visitUnaryExpression(Expression.Unary expression)
+    {
+        Expression right = optimize(expression.getRight());
+
+        if (right instanceof Expression.Literal)
+        {
+            Object value = ((Expression.Literal)right).getValue();
+            switch (expression.getOperator().getType())
+            {
+                case MINUS:
+                    if (value instanceof Double) return new Expression.Literal(-(double)value);
+                    break;
+                case BANG:
+                    return new Expression.Literal(!Interpreter.isTruthy(value));
+            }
+        }
+
+        return new Expression.Unary(expression.getOperator(), right);
+    }
+
+    @Override
+    public Expression visitBinaryExpression(Expression.Binary expression)
+    {
+        Expression left = optimize(expression.getLeft());
+        Expression right = optimize(expression.getRight());
+
+        if (left instanceof Expression.Literal && right instanceof Expression.Literal)
+        {
+            Object value = fold(expression.getOperator().getType(),
+                    ((Expression.Literal)left).getValue(), ((Expression.Literal)right).getValue());
+            if (value != null) return new Expression.Literal(value);
+        }
+
+        if (_isFusing && isComparison(expression.getOperator().getType()) &&
+                left instanceof Expression.Variable && isNumber(right))
+            return new Expression.Compare(((Expression.Variable)left).getName(), expression.getOperator(),
+                    (double)((Expression.Literal)right).getValue());
+
+        return new Expression.Binary(left, expression.getOperator(), right);
+    }
+
+    @Override
+    public Expression visitTernaryExpression(Expression.Ternary expression)
+    {
+        Expression condition = optimize(expression.getCondition());
+        Expression ifTrue = optimize(expression.getIfTrue());
+        Expression ifFalse = optimize(expression.getIfFalse());
+
+        // only the branch a constant condition picks would ever run
+        if (condition instanceof Expression.Literal)
+            return Interpreter.isTruthy(((Expression.Literal)condition).getValue()) ? ifTrue : ifFalse;
+
+        return new Expression.Ternary(expression.getOperator(), condition, ifTrue, ifFalse);
+    }
+
+    @Override
+    public Expression visitLogicalExpression(Expression.Logical expression)
+    {
+        Expression left = optimize(expression.getLeft());
+        Expression right = optimize(expression.getRight());
+
+        // a constant left operand decides on its own whether the right one runs
+        if (left instanceof Expression.Literal)
+        {
+            boolean isTruthy = Interpreter.isTruthy(((Expression.Literal)left).getValue());
+            if (expression.getOperator().getType() == TokenType.OR)
+                return isTruthy ? left : right;
+            return isTruthy ? right : left;
+        }
+
+        return new Expression.Logical(left, expression.getOperator(), right);
+    }
+
+    @Override
+    public Expression visitVariableExpression(Expression.Variable expression)
+    {
+        return new Expression.Variable(expression.getName());
+    }
+
+    @Override
+    public Expression visitAssignExpression(Expression.Assign expression)
+    {
+        Expression value = optimize(expression.getValue());
+
+        // `x = x + n` and `x = x - n`, with n a number literal
+        if (_isFusing && value instanceof Expression.Binary)
+        {
+            Expression.Binary binary = (Expression.Binary)value;
+            TokenType operator = binary.getOperator().getType();
+            if ((operator == TokenType.PLUS || operator == TokenType.MINUS) && isNumber(binary.getRight()) &&
+                    binary.getLeft() instanceof Expression.Variable &&
+                    ((Expression.Variable)binary.getLeft()).getName().getLexeme().equals(expression.getName().getLexeme()))
+            {
+                double amount = (double)((Expression.Literal)binary.getRight()).getValue();
+                return new Expression.Increment(expression.getName(), binary.getOperator(),
+                        operator == TokenType.PLUS ? amount : -amount);
+            }
+        }
+
+        return new Expression.Assign(expression.getName(), value);
+    }
+
+    @Override
+    public Expression visitIncrementExpression(Expression.Increment expression)
+    {
+        return new Expression.Increment(expression.getName(), expression.getOperator(), expression.getDelta());
+    }
+
+    @Override
+    public Expression visitCompareExpression(Expression.Compare expression)
+    {
+        return new Expression.Compare(expression.getName(), expression.getOperator(), expression.getConstant());
+    }
+
+    @Override
+    public Expression visitCallExpression(Expression.Call expression)
+    {
+        Statement.Function candidate = candidate(expression);
+        if (candidate != null && _isCountingSites) _sites.merge(candidate, 1, Integer::sum);
+        if (candidate != null && !_isCountingSites && _sizes.get(candidate) * _sites.get(candidate) <= MAX_INLINE_GROWTH)
+            return inline(expression, candidate);
+
+        // the original tree is resolved, so its callee already knows whether it is a global
+        if (_isFusing && expression.getCallee() instanceof Expression.Variable &&
+                ((Expression.Variable)expression.getCallee()).getAccess() == Access.GLOBAL)
+            return new Expression.CallGlobal(((Expression.Variable)expression.getCallee()).getName(),
+                    expression.getParen(), optimizeArguments(expression.getArguments()));
+
+        return copyCall(expression);
+    }
+
+    @Override
+    public Expression visitCallGlobalExpression(Expression.CallGlobal expression)
+    {
+        return new Expression.CallGlobal(expression.getName(), expression.getParen(),
+                optimizeArguments(expression.getArguments()));
+    }
+
+    @Override
+    public Expression visitHoistedExpression(Expression.Hoisted expression)
+    {
+        return new Expression.Hoisted(expression.getName(), optimize(expression.getExpression()));
+    }
+
+    @Override
+    public Expression visitInlineExpression(Expression.Inline expression)
+    {
+        Expression.Inline inline = new Expression.Inline(expression.getName(), expression.getParen(),
+                optimizeArguments(expression.getArguments()), optimize(expression.getBody()));
+        inline.setFunction(expression.getFunction());
+        return inline;
+    }
+
+    @Override
+    public Expression visitInlineMethodExpression(Expression.InlineMethod expression)
+    {
+        Expression.InlineMethod inline = new Expression.InlineMethod(optimize(expression.getObject()),
+                expression.getName(), expression.getParen(), optimizeArguments(expression.getArguments()),
+                optimize(expression.getBody()));
+        inline.setFunction(expression.getFunction());
+        return inline;
+    }
+
+    @Override
+    public Expression visitGetExpression(Expression.Get expression)
+    {
+        return new Expression.Get(optimize(expression.getObject()), expression.getName());
+    }
+
+    @Override
+    public Expression visitSetExpression(Expression.Set expression)
+    {
+        return new Expression.Set(optimize(expression.getObject()), expression.getName(),
+                optimize(expression.getValue()));
+    }
+
+    @Override
+    public Expression visitSuperExpression(Expression.Super expression)
+    {
+        return new Expression.Super(expression.getKeyword(), expression.getMethod());
+    }
+
+    @Override
+    public Expression visitThisExpression(Expression.This expression)
+    {
+        return new Expression.This(expression.getKeyword());
+    }
+
+    //----------------------//  helper methods
+    private Statement optimize(Statement statement)
+    {
+        return statement.accept(this);
+    }
+
+    private Expression optimize(Expression expression)
+    {
+        Token temporary = _hoisted.get(expression);
+        if (temporary == null) return expression.accept(this);
+
+        // folded into a constant, which needs no temporary
+        Expression optimized = expression.accept(this);
+        if (optimized instanceof Expression.Literal) return optimized;
+        return new Expression.Hoisted(temporary, optimized);
+    }
+
+    // the declarations of the temporaries for the invariant parts of a loop, which an
+    // enclosing loop may have hoisted further out already
+    private List<Statement> hoist(Token keyword, Expression condition, Expression increment, Statement body)
+    {
+        LoopInvariants loop = new LoopInvariants(condition, increment, body);
+        if (loop.getInvariants().isEmpty() && _isReportingLoops && !_isCountingSites)
+            System.err.println("[line " + keyword.getLine() + "] Loop not optimized: " + loop.getReason() + ".");
+
+        List<Statement> temporaries = new ArrayList<>();
+        for (Expression invariant : loop.getInvariants())
+        {
+            if (_hoisted.containsKey(invariant)) continue;
+
+            Token temporary = new Token(TokenType.IDENTIFIER, " " + _temporaries++, null, keyword.getLine());
+            _hoisted.put(invariant, temporary);
+            temporaries.add(new Statement.Var(temporary, null));
+        }
+        return temporaries;
+    }
+
+    // a loop with temporaries gets a block around it, for them to be declared in
+    private static Statement enclose(List<Statement> temporaries, Statement loop)
+    {
+        if (temporaries.isEmpty()) return loop;
+
+        List<Statement> statements = new ArrayList<>(temporaries);
+        statements.add(loop);
+        return new Statement.Block(statements);
+    }
+
+    // a branch whose if was folded away entirely still needs a statement in its place
+    private Statement branch(Statement statement)
+    {
+        Statement optimized = optimize(statement);
+        return optimized != null ? optimized : new Statement.Block(new ArrayList<>());
+    }
+
+    // the function a call could be inlined from: a global one it calls by name, or the method it
+    // calls when only one class declares a method of that name
+    private Statement.Function candidate(Expression.Call expression)
+    {
+        Statement.Function function = null;
+        if (expression.getCallee() instanceof Expression.Variable &&
+                ((Expression.Variable)expression.getCallee()).getAccess() == Access.GLOBAL)
+            function = _functions.get(((Expression.Variable)expression.getCallee()).getName().getLexeme());
+        else if (expression.getCallee() instanceof Expression.Get)
+            function = _methods.get(((Expression.Get)expression.getCallee()).getName().getLexeme());
+
+        if (function == null || function.getParams().size() != expression.getArguments().size()) return null;
+        return function;
+    }
+
+    // the site checks it still calls function before running the copy of its body; function is the
+    // original here, and replaced by its copy once the whole program is optimized
+    private Expression inline(Expression.Call expression, Statement.Function function)
+    {
+        Expression body = optimize(((Statement.Return)function.getBody().get(0)).getValue());
+        List<Expression> arguments = optimizeArguments(expression.getArguments());
+
+        if (expression.getCallee() instanceof Expression.Variable)
+        {
+            Expression.Inline inline = new Expression.Inline(((Expression.Variable)expression.getCallee()).getName(),
+                    expression.getParen(), arguments, body);
+            inline.setFunction(function);
+            _inlined.add(inline);
+            return inline;
+        }
+
+        Expression.Get method = (Expression.Get)expression.getCallee();
+        Expression.InlineMethod inline = new Expression.InlineMethod(optimize(method.getObject()), method.getName(),
+                expression.getParen(), arguments, body);
+        inline.setFunction(function);
+        _inlined.add(inline);
+        return inline;
+    }
+
+    // the top-level functions declared once, and the methods no other top-level class declares,
+    // that are small enough to inline
+    private void findCandidates(List<Statement> statements)
+    {
+        Map<String, Integer> globals = new HashMap<>();
+        Map<String, Integer> methods = new HashMap<>();
+        for (Statement statement : statements)
+        {
+            if (statement instanceof Statement.Var)
+                globals.merge(((Statement.Var)statement).getName().getLexeme(), 1, Integer::sum);
+            else if (statement instanceof Statement.Function)
+                globals.merge(((Statement.Function)statement).getName().getLexeme(), 1, Integer::sum);
+            else if (statement instanceof Statement.Class)
+            {
+                globals.merge(((Statement.Class)statement).getName().getLexeme(), 1, Integer::sum);
+                for (Statement.Function method : ((Statement.Class)statement).getMethods())
+                    methods.merge(method.getName().getLexeme(), 1, Integer::sum);
+            }
+        }
+
+        for (Statement statement : statements)
+        {
+            if (statement instanceof Statement.Function)
+            {
+                Statement.Function function = (Statement.Function)statement;
+                if (globals.get(function.getName().getLexeme()) == 1 && isInlinable(function, false))
+                    _functions.put(function.getName().getLexeme(), function);
+            }
+            else if (statement instanceof Statement.Class)
+            {
+                for (Statement.Function method : ((Statement.Class)statement).getMethods())
+                {
+                    String name = method.getName().getLexeme();
+                    if (methods.get(name) == 1 && !name.equals("init") && isInlinable(method, true))
+                        _methods.put(name, method);
+                }
+            }
+        }
+    }
+
+    private boolean isInlinable(Statement.Function function, boolean isMethod)
+    {
+        if (function.getBody().size() != 1 || !(function.getBody().get(0) instanceof Statement.Return)) return false;
+        Expression value = ((Statement.Return)function.getBody().get(0)).getValue();
+        if (value == null) return false;
+
+        int size = size(value, function.getParams(), isMethod);
+        if (size == -1 || size > MAX_INLINE_SIZE) return false;
+
+        _sizes.put(function, size);
+        return true;
+    }
+
+    // the nodes in an expression that reads nothing but params (and `this` in a method),
+    // or -1 when it reads anything else or could call something
+    private static int size(Expression expression, List<Token> params, boolean isMethod)
+    {
+        if (expression instanceof Expression.Literal) return 1;
+        if (expression instanceof Expression.This) return isMethod ? 1 : -1;
+        if (expression instanceof Expression.Variable)
+        {
+            for (Token param : params)
+                if (param.getLexeme().equals(((Expression.Variable)expression).getName().getLexeme())) return 1;
+            return -1;
+        }
+        if (expression instanceof Expression.Grouping)
+            return size(((Expression.Grouping)expression).getExpression(), params, isMethod);
+        if (expression instanceof Expression.Get)
+            return sum(size(((Expression.Get)expression).getObject(), params, isMethod));
+        if (expression instanceof Expression.Unary)
+            return sum(size(((Expression.Unary)expression).getRight(), params, isMethod));
+        if (expression instanceof Expression.Binary)
+            return sum(size(((Expression.Binary)expression).getLeft(), params, isMethod),
+                    size(((Expression.Binary)expression).getRight(), params, isMethod));
+        if (expression instanceof Expression.Logical)
+            return sum(size(((Expression.Logical)expression).getLeft(), params, isMethod),
+                    size(((Expression.Logical)expression).getRight(), params, isMethod));
+        if (expression instanceof Expression.Ternary)
+            return sum(size(((Expression.Ternary)expression).getCondition(), params, isMethod),
+                    size(((Expression.Ternary)expression).getIfTrue(), params, isMethod),
+                    size(((Expression.Ternary)expression).getIfFalse(), params, isMethod));
+
+        return -1;
+    }
+
+    // one node with the given children
+    private static int sum(int... sizes)
+    {
+        int total = 1;
+        for (int size : sizes)
+        {
+            if (size == -1) return -1;
+            total += size;
+        }
+        return total;
+    }
+
+    private Expression.Call copyCall(Expression.Call expression)
+    {
+        return new Expression.Call(optimize(expression.getCallee()), expression.getParen(),
+                optimizeArguments(expression.getArguments()));
+    }
+
+    private List<Expression> optimizeArguments(List<Expression> arguments)
+    {
+        List<Expression> optimized = new ArrayList<>();
+        for (Expression argument : arguments)
+            optimized.add(optimize(argument));
+        return optimized;
+    }
+
+    private List<Statement.Function> optimizeMethods(List<Statement.Function> methods)
+    {
+        List<Statement.Function> optimized = new ArrayList<>();
+        for (Statement.Function method : methods)
+            optimized.add((Statement.Function)optimize(method));
+        return optimized;
+    }
+
+    private static boolean isComparison(TokenType operator)
+    {
+        return operator == TokenType.GREATER || operator == TokenType.GREATER_EQUAL ||
+                operator == TokenType.LESS || operator == TokenType.LESS_EQUAL;
+    }
+
+    private static boolean isNumber(Expression expression)
+    {
+        return expression instanceof Expression.Literal && ((Expression.Literal)expression).getValue() instanceof Double;
+    }
+
+    public static void setFusion(boolean isFusionEnabled)
+    {
+        _isFusionEnabled = isFusionEnabled;
+    }
+
+    public static void setInlining(boolean isInliningEnabled)
+    {
+        _isInliningEnabled = isInliningEnabled;
+    }
+
+    public static void setLoopReport(boolean isReportingLoops)
+    {
+        _isReportingLoops = isReportingLoops;
+    }
+
+    // the value of a binary operator on two literals, or null when it has to be left for the
+    // runtime, either to report its error or because it can't be known here
+    private static Object fold(TokenType operator, Object left, Object right)
+    {
+        switch (operator)
+        {
+            case BANG_EQUAL: return !Interpreter.isEqual(left, right);
+            case EQUAL_EQUAL: return Interpreter.isEqual(left, right);
+            case PLUS:
+                if (left instanceof String && right instanceof String) return (String)left + (String)right;
+        }
+
+        if (!(left instanceof Double && right instanceof Double)) return null;
+        double a = (double)left;
+        double b = (double)right;
+
+        switch (operator)
+        {
+            case GREATER: return a > b;
+            case GREATER_EQUAL: return a >= b;
+            case LESS: return a < b;
+            case LESS_EQUAL: return a <= b;
+            case PLUS: return a + b;
+            case MINUS: return a - b;
+            case STAR: return a * b;
+            case SLASH: return b == (double)0 ? null : a / b;
+        }
+
+        return null;
+    }
+}
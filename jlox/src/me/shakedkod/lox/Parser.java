@@ -2,7 +2,6 @@ package me.shakedkod.lox;
 
 import javax.lang.model.type.ReferenceType;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import static me.shakedkod.lox.TokenType.*;
@@ -158,6 +157,7 @@ public class Parser
 
     private Statement forStatement()
     {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
         Statement initializer;
@@ -180,19 +180,7 @@ public class Parser
 
         Statement body = statement();
 
-        if (increment != null)
-            body = new Statement.Block(Arrays.asList(
-                    body,
-                    new Statement.Expr(increment)
-            ));
-
-        if (condition == null) condition = new Expression.Literal(true);
-        body = new Statement.While(condition, body);
-
-        if (initializer != null)
-            body = new Statement.Block(Arrays.asList(initializer, body));
-
-        return body;
+        return new Statement.For(keyword, initializer, condition, increment, body);
     }
 
     private Statement ifStatement()
@@ -211,12 +199,13 @@ public class Parser
 
     private Statement whileStatement()
     {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'while'.");
         Expression condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after condition.");
         Statement body = statement();
 
-        return new Statement.While(condition, body);
+        return new Statement.While(keyword, condition, body);
     }
 
     private Statement printStatement()
@@ -0,0 +1,142 @@
+package me.shakedkod.lox;
+
+// A polymorphic inline cache for one Get or Set site. Entries are keyed on the
+// receiver's Shape; shapes never span classes, so a shape also fixes which method a
+// Get finds. A site that sees more than MAX_ENTRIES shapes goes megamorphic and
+// does the full lookup from then on.
+public class PropertyCache
+{
+    private static final int MAX_ENTRIES = 4;
+
+    // --cache-stats: lookups over every site are counted
+    private static boolean _isCounting = false;
+    private static long _hits = 0;
+    private static long _misses = 0;
+    private static long _megamorphic = 0;
+
+    private final Shape[] _shapes = new Shape[MAX_ENTRIES];
+    private final int[] _slots = new int[MAX_ENTRIES];
+    // a Get caches the method it found when slot is -1, a Set the shape after the store
+    private final Object[] _targets = new Object[MAX_ENTRIES];
+    private int _count = 0;
+    private boolean _isMegamorphic = false;
+
+    public Object get(LoxInstance instance, Token name)
+    {
+        // a class looks up its static methods instead
+        if (instance instanceof LoxClass) return instance.get(name);
+
+        Shape shape = instance.getShape();
+        for (int i = 0; i < _count; i++)
+        {
+            if (_shapes[i] == shape)
+            {
+                if (_isCounting) _hits++;
+                if (_slots[i] != -1) return instance.getField(_slots[i]);
+                return ((LoxFunction)_targets[i]).bind(instance);
+            }
+        }
+
+        if (_isMegamorphic)
+        {
+            if (_isCounting) _megamorphic++;
+            return instance.get(name);
+        }
+
+        if (_isCounting) _misses++;
+        Object value = instance.get(name);
+
+        int slot = shape.slotOf(name.getLexeme());
+        add(shape, slot, slot == -1 ? instance.getKlass().findMethod(name.getLexeme()) : null);
+        return value;
+    }
+
+    // the method a call site should invoke on instance, found without binding it; null when
+    // the property is a field (or instance is a class), which get then reads as usual
+    public LoxFunction findMethod(LoxInstance instance, Token name)
+    {
+        if (instance instanceof LoxClass) return null;
+
+        Shape shape = instance.getShape();
+        for (int i = 0; i < _count; i++)
+        {
+            if (_shapes[i] == shape)
+            {
+                if (_slots[i] != -1) return null;
+
+                if (_isCounting) _hits++;
+                return (LoxFunction)_targets[i];
+            }
+        }
+
+        int slot = shape.slotOf(name.getLexeme());
+        if (slot != -1) return null;
+
+        if (_isMegamorphic)
+        {
+            if (_isCounting) _megamorphic++;
+            LoxFunction method = instance.getKlass().findMethod(name.getLexeme());
+            if (method == null) instance.get(name);
+            return method;
+        }
+
+        if (_isCounting) _misses++;
+        LoxFunction method = instance.getKlass().findMethod(name.getLexeme());
+        if (method == null) instance.get(name);
+
+        add(shape, -1, method);
+        return method;
+    }
+
+    public void set(LoxInstance instance, Token name, Object value)
+    {
+        Shape shape = instance.getShape();
+        for (int i = 0; i < _count; i++)
+        {
+            if (_shapes[i] == shape)
+            {
+                if (_isCounting) _hits++;
+                instance.setField(_slots[i], (Shape)_targets[i], value);
+                return;
+            }
+        }
+
+        if (_isMegamorphic)
+        {
+            if (_isCounting) _megamorphic++;
+            instance.set(name, value);
+            return;
+        }
+
+        if (_isCounting) _misses++;
+        instance.set(name, value);
+        add(shape, instance.getShape().slotOf(name.getLexeme()), instance.getShape());
+    }
+
+    private void add(Shape shape, int slot, Object target)
+    {
+        if (_count == MAX_ENTRIES)
+        {
+            _isMegamorphic = true;
+            return;
+        }
+
+        _shapes[_count] = shape;
+        _slots[_count] = slot;
+        _targets[_count] = target;
+        _count++;
+    }
+
+    public static void setCounting(boolean isCounting)
+    {
+        _isCounting = isCounting;
+    }
+
+    public static String statistics()
+    {
+        long total = _hits + _misses + _megamorphic;
+        double hitRate = total == 0 ? 0 : 100.0 * _hits / total;
+        return "property caches: " + _hits + " hits, " + _misses + " misses, " + _megamorphic + " megamorphic (" +
+                String.format("%.1f", hitRate) + "% hit rate)";
+    }
+}
@@ -1,5 +1,7 @@
 package me.shakedkod.lox;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -7,16 +9,10 @@ import java.util.Stack;
 
 public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void>
 {
-    private final Interpreter _interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Scope> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
 
-    public Resolver(Interpreter interpreter)
-    {
-        _interpreter = interpreter;
-    }
-
     private enum FunctionType
     {
         NONE,
@@ -32,12 +28,95 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
         SUBCLASS
     }
 
+    // a name declared in a local scope, and the slot it will occupy in its frame
+    private static class Local
+    {
+        private final int _slot;
+        // the Var, Function or Class that declared it; null for parameters and `this`/`super`
+        private final Statement _declaration;
+        private boolean _isDefined = false;
+        private boolean _isCaptured = false;
+        // the reads and writes from its own function, which go through its Cell once it is captured
+        private final List<Expression> _uses = new ArrayList<>();
+
+        Local(int slot, Statement declaration)
+        {
+            _slot = slot;
+            _declaration = declaration;
+        }
+    }
+
+    // A local scope. Only frames get an Environment at runtime: the scope of each function,
+    // and the outermost scope at the top level. Every other scope keeps its locals in free
+    // slots of the frame it is nested in, and gives them back at its end.
+    private static class Scope
+    {
+        private final Map<String, Local> _locals = new HashMap<>();
+        private final Scope _enclosing;
+        private final Scope _frame;
+        // the scope of the function this one is in, null at the top level
+        private final Scope _function;
+        private int _nextSlot;
+        // for a frame, the slots its Environment needs
+        private int _size = 0;
+        // for a function, the variables of enclosing functions it captures
+        private final List<Upvalue> _upvalues = new ArrayList<>();
+
+        Scope(Scope enclosing, boolean isFunction)
+        {
+            _enclosing = enclosing;
+            if (isFunction || enclosing == null)
+            {
+                _frame = this;
+                _function = isFunction ? this : null;
+                _nextSlot = 0;
+            }
+            else
+            {
+                _frame = enclosing._frame;
+                _function = enclosing._function;
+                _nextSlot = enclosing._nextSlot;
+            }
+        }
+
+        Local declare(String name, Statement declaration)
+        {
+            Local local = new Local(_nextSlot++, declaration);
+            _frame._size = Math.max(_frame._size, _nextSlot);
+            _locals.put(name, local);
+            return local;
+        }
+
+        // the function this function is declared in, null at the top level
+        Scope enclosingFunction()
+        {
+            return _enclosing == null ? null : _enclosing._function;
+        }
+
+        int addUpvalue(boolean isLocal, int index)
+        {
+            for (int i = 0; i < _upvalues.size(); i++)
+                if (_upvalues.get(i).isLocal() == isLocal && _upvalues.get(i).getIndex() == index)
+                    return i;
+
+            _upvalues.add(new Upvalue(isLocal, index));
+            return _upvalues.size() - 1;
+        }
+    }
+
     @Override
     public Void visitBlockStatement(Statement.Block statement)
     {
-        beginScope();
+        // a block only gets an Environment of its own at the top level, where there is no
+        // frame to share; anywhere else its locals take slots of the enclosing function's
+        // frame, and its frameSize stays -1 for the engines to run it in that frame
+        boolean isFrame = scopes.isEmpty();
+
+        beginScope(false);
         resolve(statement.getStatements());
-        endScope();
+        Scope scope = endScope();
+
+        if (isFrame) statement.setFrameSize(scope._size);
         return null;
     }
 
@@ -47,7 +126,7 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(statement.getName());
+        statement.setSlot(declare(statement.getName(), statement));
         define(statement.getName());
 
         if (statement.getSuperclass() != null && statement.getName().getLexeme().equals(
@@ -64,28 +143,24 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
 
         if (statement.getSuperclass() != null)
         {
-            beginScope();
-            scopes.peek().put("super", true);
+            beginScope(false);
+            statement.setSuperSlot(declareSynthetic("super"));
         }
 
-        beginScope();
-        scopes.peek().put("this", true);
-
         for (Statement.Function method : statement.getMethods())
         {
             FunctionType declaration = FunctionType.METHOD;
             if (method.getName().getLexeme().equals("init"))
                 declaration = FunctionType.INITIALIZER;
-            resolveFunction(method, declaration);
+            resolveFunction(method, declaration, true);
         }
 
         for (Statement.Function method : statement.getStaticMethods())
         {
             FunctionType declaration = FunctionType.FUNCTION;
-            resolveFunction(method, declaration);
+            resolveFunction(method, declaration, true);
         }
 
-        endScope();
         if (statement.getSuperclass() != null) endScope();
         currentClass = enclosingClass;
         return null;
@@ -94,7 +169,7 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
     @Override
     public Void visitVarStatement(Statement.Var statement)
     {
-        declare(statement.getName());
+        statement.setSlot(declare(statement.getName(), statement));
 
         if (statement.getInitializer() != null)
             resolve(statement.getInitializer());
@@ -106,11 +181,12 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
     @Override
     public Void visitVariableExpression(Expression.Variable expression)
     {
-        if (!scopes.isEmpty() && scopes.peek().get(expression.getName().getLexeme()) == Boolean.FALSE)
+        if (!scopes.isEmpty() && scopes.peek()._locals.containsKey(expression.getName().getLexeme())
+                && !scopes.peek()._locals.get(expression.getName().getLexeme())._isDefined)
             Lox.error(expression.getName(),
                     "Can't read local variable in its own initializer.");
 
-        resolveLocal(expression, expression.getName());
+        resolveLocal(expression, expression.getName().getLexeme());
         return null;
     }
 
@@ -118,17 +194,40 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
     public Void visitAssignExpression(Expression.Assign expression)
     {
         resolve(expression.getValue());
-        resolveLocal(expression, expression.getName());
+        resolveLocal(expression, expression.getName().getLexeme());
+        return null;
+    }
+
+    // the fused nodes the Optimizer makes only ever appear in a tree that was already checked
+    @Override
+    public Void visitIncrementExpression(Expression.Increment expression)
+    {
+        resolveLocal(expression, expression.getName().getLexeme());
+        return null;
+    }
+
+    @Override
+    public Void visitCompareExpression(Expression.Compare expression)
+    {
+        resolveLocal(expression, expression.getName().getLexeme());
+        return null;
+    }
+
+    @Override
+    public Void visitHoistedExpression(Expression.Hoisted expression)
+    {
+        resolve(expression.getExpression());
+        resolveLocal(expression, expression.getName().getLexeme());
         return null;
     }
 
     @Override
     public Void visitFunctionStatement(Statement.Function statement)
     {
-        declare(statement.getName());
+        statement.setSlot(declare(statement.getName(), statement));
         define(statement.getName());
 
-        resolveFunction(statement, FunctionType.FUNCTION);
+        resolveFunction(statement, FunctionType.FUNCTION, false);
         return null;
     }
 
@@ -167,10 +266,32 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
                         "Can't return a value from an initializer.");
 
             resolve(statement.getValue());
+
+            // `return f(...)` leaves nothing to do after the call, so the caller's frame can go first
+            statement.setTail(statement.getValue() instanceof Expression.Call);
         }
         return null;
     }
 
+    @Override
+    public Void visitForStatement(Statement.For statement)
+    {
+        // like a block, the loop only gets an Environment of its own at the top level, and
+        // otherwise runs in the enclosing frame with a frameSize of -1
+        boolean isFrame = scopes.isEmpty();
+
+        beginScope(false);
+        if (statement.getInitializer() != null) resolve(statement.getInitializer());
+        if (statement.getCondition() != null) resolve(statement.getCondition());
+        resolve(statement.getBody());
+        if (statement.getIncrement() != null) resolve(statement.getIncrement());
+        statement.setCounter(isCounter(statement, scopes.peek()));
+        Scope scope = endScope();
+
+        if (isFrame) statement.setFrameSize(scope._size);
+        return null;
+    }
+
     @Override
     public Void visitWhileStatement(Statement.While statement) {
         resolve(statement.getCondition());
@@ -182,6 +303,14 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
     public Void visitBinaryExpression(Expression.Binary expression) {
         resolve(expression.getLeft());
         resolve(expression.getRight());
+
+        // arithmetic always gives a number (or fails), so the Interpreter can keep it unboxed
+        TokenType operator = expression.getOperator().getType();
+        if (operator == TokenType.MINUS || operator == TokenType.SLASH || operator == TokenType.STAR)
+            expression.setNumeric(true);
+        else if (operator == TokenType.PLUS)
+            expression.setNumeric(isNumeric(expression.getLeft()) ||
+                    isNumeric(expression.getRight()));
         return null;
     }
 
@@ -196,6 +325,39 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
         return null;
     }
 
+    @Override
+    public Void visitInlineExpression(Expression.Inline expression)
+    {
+        expression.setSlot(Environment.globalSlot(expression.getName().getLexeme()));
+        expression.setSlots(inline(expression.getFunction(), false, expression.getArguments(),
+                expression.getBody()));
+        return null;
+    }
+
+    @Override
+    public Void visitInlineMethodExpression(Expression.InlineMethod expression)
+    {
+        resolve(expression.getObject());
+
+        int[] slots = inline(expression.getFunction(), true, expression.getArguments(), expression.getBody());
+        if (slots == null) return null;
+
+        expression.setReceiverSlot(slots[0]);
+        expression.setSlots(Arrays.copyOfRange(slots, 1, slots.length));
+        return null;
+    }
+
+    @Override
+    public Void visitCallGlobalExpression(Expression.CallGlobal expression)
+    {
+        expression.setSlot(Environment.globalSlot(expression.getName().getLexeme()));
+
+        for (Expression argument : expression.getArguments())
+            resolve(argument);
+
+        return null;
+    }
+
     @Override
     public Void visitGetExpression(Expression.Get expression) {
         resolve(expression.getObject());
@@ -238,7 +400,12 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
             Lox.error(expression.getKeyword(),
                     "Can't use 'super' in a class with no superclass.");
 
-        resolveLocal(expression, expression.getKeyword());
+        resolveLocal(expression, "super");
+
+        // the method is bound to the `this` of the method the expression is in
+        Expression.This receiver = new Expression.This(expression.getKeyword());
+        resolveLocal(receiver, "this");
+        expression.setReceiver(receiver);
         return null;
     }
 
@@ -252,7 +419,7 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
             return null;
         }
 
-        resolveLocal(expression, expression.getKeyword());
+        resolveLocal(expression, "this");
         return null;
     }
 
@@ -288,58 +455,266 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
         expression.accept(this);
     }
 
-    private void resolveLocal(Expression expression, Token name)
+    private void resolveLocal(Expression expression, String name)
     {
         for (int i = scopes.size() - 1; i >=0; i--)
-            if (scopes.get(i).containsKey(name.getLexeme()))
+        {
+            Local local = scopes.get(i)._locals.get(name);
+            if (local == null) continue;
+
+            Scope function = scopes.peek()._function;
+            Scope owner = scopes.get(i)._function;
+            if (function == owner)
             {
-                _interpreter.resolve(expression, scopes.size() - 1 - i);
-                return;
+                bind(expression, local._isCaptured ? Access.CELL : Access.LOCAL, local._slot);
+                local._uses.add(expression);
             }
+            else
+            {
+                capture(local);
+                bind(expression, Access.UPVALUE, upvalue(function, owner, local));
+            }
+            return;
+        }
+
+        bind(expression, Access.GLOBAL, Environment.globalSlot(name));
+    }
+
+    // the slots of the caller's frame that an inlined function keeps its parameters in, `this`
+    // first for a method; null at the top level, which has no frame, so the call is made there
+    private int[] inline(Statement.Function function, boolean isMethod, List<Expression> arguments, Expression body)
+    {
+        if (scopes.isEmpty())
+        {
+            for (Expression argument : arguments)
+                resolve(argument);
+            return null;
+        }
+
+        // the slots are taken before the arguments are resolved, so a call inlined into an argument
+        // takes slots past them and can't overwrite a parameter stored before it. they only get
+        // their names after, not to hide the caller's own variables from the arguments
+        beginScope(false);
+        Scope scope = scopes.peek();
+        List<String> names = new ArrayList<>();
+        if (isMethod) names.add("this");
+        for (Token param : function.getParams())
+            names.add(param.getLexeme());
+
+        Local[] locals = new Local[names.size()];
+        for (int i = 0; i < locals.length; i++)
+            locals[i] = scope.declare(" " + i, null);
+
+        for (Expression argument : arguments)
+            resolve(argument);
+
+        int[] slots = new int[locals.length];
+        for (int i = 0; i < locals.length; i++)
+        {
+            locals[i]._isDefined = true;
+            scope._locals.put(names.get(i), locals[i]);
+            slots[i] = locals[i]._slot;
+        }
+
+        ClassType enclosingClass = currentClass;
+        if (isMethod) currentClass = ClassType.CLASS;
+        resolve(body);
+        currentClass = enclosingClass;
+
+        endScope();
+        return slots;
     }
 
-    private void resolveFunction(Statement.Function function, FunctionType type)
+    // the index of local among the upvalues of function, captured through every function
+    // between it and owner, the function that declared local
+    private int upvalue(Scope function, Scope owner, Local local)
+    {
+        Scope enclosing = function.enclosingFunction();
+        if (enclosing == owner) return function.addUpvalue(true, local._slot);
+        return function.addUpvalue(false, upvalue(enclosing, owner, local));
+    }
+
+    // a captured local lives in a Cell, so the code of its own function reaches it through one too
+    private void capture(Local local)
+    {
+        if (local._isCaptured) return;
+        local._isCaptured = true;
+
+        if (local._declaration instanceof Statement.Var)
+            ((Statement.Var)local._declaration).setCaptured(true);
+        else if (local._declaration instanceof Statement.Function)
+            ((Statement.Function)local._declaration).setCaptured(true);
+        else if (local._declaration instanceof Statement.Class)
+            ((Statement.Class)local._declaration).setCaptured(true);
+
+        for (Expression use : local._uses)
+            bind(use, Access.CELL, local._slot);
+    }
+
+    // stores where a local lives directly on the node that reads or writes it
+    private void bind(Expression expression, Access access, int slot)
+    {
+        if (expression instanceof Expression.Variable)
+        {
+            ((Expression.Variable)expression).setAccess(access);
+            ((Expression.Variable)expression).setSlot(slot);
+        }
+        else if (expression instanceof Expression.Assign)
+        {
+            ((Expression.Assign)expression).setAccess(access);
+            ((Expression.Assign)expression).setSlot(slot);
+        }
+        else if (expression instanceof Expression.Increment)
+        {
+            ((Expression.Increment)expression).setAccess(access);
+            ((Expression.Increment)expression).setSlot(slot);
+        }
+        else if (expression instanceof Expression.Compare)
+        {
+            ((Expression.Compare)expression).setAccess(access);
+            ((Expression.Compare)expression).setSlot(slot);
+        }
+        else if (expression instanceof Expression.Hoisted)
+            // a temporary is never captured, it is always a local of the function it is in
+            ((Expression.Hoisted)expression).setSlot(slot);
+        else if (expression instanceof Expression.This)
+        {
+            ((Expression.This)expression).setAccess(access);
+            ((Expression.This)expression).setSlot(slot);
+        }
+        else if (expression instanceof Expression.Super)
+        {
+            ((Expression.Super)expression).setAccess(access);
+            ((Expression.Super)expression).setSlot(slot);
+        }
+    }
+
+    // a method's own scope starts with `this`, so calling it needs no extra Environment
+    private void resolveFunction(Statement.Function function, FunctionType type, boolean isMethod)
     {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
 
-        beginScope();
+        beginScope(true);
+        if (isMethod) declareSynthetic("this");
         for (Token param : function.getParams())
         {
-            declare(param);
+            declare(param, null);
             define(param);
         }
         resolve(function.getBody());
 
-        endScope();
+        // a call sizes the function's frame up front, so defining its locals never grows it
+        Scope scope = endScope();
+        function.setFrameSize(scope._size);
+        function.setUpvalues(scope._upvalues.toArray(new Upvalue[0]));
+
+        // parameters (and `this`) that a closure captures are moved into cells when a call starts
+        List<Integer> captured = new ArrayList<>();
+        for (Local local : scope._locals.values())
+            if (local._declaration == null && local._isCaptured) captured.add(local._slot);
+        int[] capturedSlots = new int[captured.size()];
+        for (int i = 0; i < capturedSlots.length; i++)
+            capturedSlots[i] = captured.get(i);
+        function.setCapturedSlots(capturedSlots);
+
         currentFunction = enclosingFunction;
     }
 
-    private void beginScope()
+    // an expression that always evaluates to a number (or fails)
+    private static boolean isNumeric(Expression expression)
+    {
+        if (expression instanceof Expression.Binary)
+            return ((Expression.Binary)expression).getNumeric();
+        if (expression instanceof Expression.Unary)
+            return ((Expression.Unary)expression).getOperator().getType() == TokenType.MINUS;
+        if (expression instanceof Expression.Grouping)
+            return isNumeric(((Expression.Grouping)expression).getExpression());
+        if (expression instanceof Expression.Literal)
+            return ((Expression.Literal)expression).getValue() instanceof Double;
+
+        return false;
+    }
+
+    // `for (var i = start; i < limit; i = i + step)`, with any comparison, a number literal as the
+    // step, and nothing but the increment assigning i, so the loop can count in a double. the
+    // engines box the counter only into its slot, for the body to read; the limit may change
+    // and is still evaluated on every run
+    private static boolean isCounter(Statement.For loop, Scope scope)
     {
-        scopes.push(new HashMap<String, Boolean>());
+        if (!(loop.getInitializer() instanceof Statement.Var)) return false;
+        Statement.Var declaration = (Statement.Var)loop.getInitializer();
+        Local counter = scope._locals.get(declaration.getName().getLexeme());
+        if (declaration.getInitializer() == null || counter._isCaptured) return false;
+
+        if (!(loop.getCondition() instanceof Expression.Binary)) return false;
+        Expression.Binary condition = (Expression.Binary)loop.getCondition();
+        TokenType comparison = condition.getOperator().getType();
+        if (comparison != TokenType.LESS && comparison != TokenType.LESS_EQUAL &&
+                comparison != TokenType.GREATER && comparison != TokenType.GREATER_EQUAL)
+            return false;
+        if (!isRead(condition.getLeft(), counter)) return false;
+
+        if (!(loop.getIncrement() instanceof Expression.Assign)) return false;
+        Expression.Assign increment = (Expression.Assign)loop.getIncrement();
+        if (!counter._uses.contains(increment) || !(increment.getValue() instanceof Expression.Binary)) return false;
+        Expression.Binary next = (Expression.Binary)increment.getValue();
+        TokenType direction = next.getOperator().getType();
+        if ((direction != TokenType.PLUS && direction != TokenType.MINUS) || !isRead(next.getLeft(), counter) ||
+                !(next.getRight() instanceof Expression.Literal))
+            return false;
+        Object step = ((Expression.Literal)next.getRight()).getValue();
+        if (!(step instanceof Double)) return false;
+
+        for (Expression use : counter._uses)
+            if ((use instanceof Expression.Assign || use instanceof Expression.Increment) && use != increment)
+                return false;
+
+        loop.setStep(direction == TokenType.PLUS ? (double)step : -(double)step);
+        return true;
+    }
+
+    private static boolean isRead(Expression expression, Local local)
+    {
+        return expression instanceof Expression.Variable && local._uses.contains(expression);
     }
 
-    private void endScope()
+    private void beginScope(boolean isFunction)
     {
-        scopes.pop();
+        scopes.push(new Scope(scopes.isEmpty() ? null : scopes.peek(), isFunction));
     }
 
-    private void declare(Token name)
+    private Scope endScope()
     {
-        if (scopes.isEmpty()) return;
-        Map<String, Boolean> scope = scopes.peek();
+        return scopes.pop();
+    }
+
+    // the slot name gets in its frame, or in the global table
+    private int declare(Token name, Statement declaration)
+    {
+        if (scopes.isEmpty()) return Environment.globalSlot(name.getLexeme());
+        Scope scope = scopes.peek();
 
-        if (scope.containsKey(name.getLexeme()))
+        if (scope._locals.containsKey(name.getLexeme()))
+        {
             Lox.error(name,
                     "Already a variable with this name in this scope.");
+            return scope._locals.get(name.getLexeme())._slot;
+        }
 
-        scope.put(name.getLexeme(), false);
+        return scope.declare(name.getLexeme(), declaration)._slot;
     }
 
     private void define(Token name)
     {
         if (scopes.isEmpty()) return;
-        scopes.peek().put(name.getLexeme(), true);
+        scopes.peek()._locals.get(name.getLexeme())._isDefined = true;
+    }
+
+    private int declareSynthetic(String name)
+    {
+        Local local = scopes.peek().declare(name, null);
+        local._isDefined = true;
+        return local._slot;
     }
 }
\ No newline at end of file
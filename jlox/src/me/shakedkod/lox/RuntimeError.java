@@ -3,11 +3,21 @@ package me.shakedkod.lox;
 public class RuntimeError extends RuntimeException
 {
     private final Token _token;
+    private final int _line;
 
     public RuntimeError(Token token, String message)
     {
         super(message);
         _token = token;
+        _line = token.getLine();
+    }
+
+    // for errors raised by the VM, which only keeps line numbers around
+    public RuntimeError(int line, String message)
+    {
+        super(message);
+        _token = null;
+        _line = line;
     }
 
     // getter
@@ -15,4 +25,9 @@ public class RuntimeError extends RuntimeException
     {
         return _token;
     }
+
+    public int getLine()
+    {
+        return _line;
+    }
 }
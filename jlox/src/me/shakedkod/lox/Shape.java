@@ -0,0 +1,50 @@
+package me.shakedkod.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// The field layout of an instance: which slot of its values array holds each field.
+// Instances of a class that got the same fields in the same order share one Shape,
+// and adding a field moves an instance along a transition to the next one.
+public class Shape
+{
+    private final Map<String, Integer> _slots;
+    private final Map<String, Shape> _transitions = new HashMap<>();
+
+    // the shape of an instance with no fields yet
+    public Shape()
+    {
+        _slots = new HashMap<>();
+    }
+
+    private Shape(Shape parent, String name)
+    {
+        _slots = new HashMap<>(parent._slots);
+        _slots.put(name, parent._slots.size());
+    }
+
+    // -1 when instances of this shape do not have the field
+    public int slotOf(String name)
+    {
+        Integer slot = _slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    // the shape of an instance of this shape once name is added to it
+    public Shape with(String name)
+    {
+        Shape next = _transitions.get(name);
+        if (next == null)
+        {
+            next = new Shape(this, name);
+            _transitions.put(name, next);
+        }
+
+        return next;
+    }
+
+    public int size()
+    {
+        return _slots.size();
+    }
+}
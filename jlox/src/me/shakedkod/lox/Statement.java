@@ -2,13 +2,34 @@ package me.shakedkod.lox;
 
 import java.util.List;
 
-abstract class Statement
+public abstract sealed class Statement permits Statement.Block, Statement.Class, Statement.Expr, Statement.For, Statement.Function, Statement.If, Statement.Print, Statement.Return, Statement.Var, Statement.While
 {
-	interface Visitor<R>
+	public static final int BLOCK = 0;
+	public static final int CLASS = 1;
+	public static final int EXPR = 2;
+	public static final int FOR = 3;
+	public static final int FUNCTION = 4;
+	public static final int IF = 5;
+	public static final int PRINT = 6;
+	public static final int RETURN = 7;
+	public static final int VAR = 8;
+	public static final int WHILE = 9;
+
+	private final int _kind;
+
+	protected Statement(int kind)
+	{
+		_kind = kind;
+	}
+
+	public final int getKind() { return _kind; }
+
+	public interface Visitor<R>
 	{
 		R visitBlockStatement(Block statement);
 		R visitClassStatement(Class statement);
 		R visitExprStatement(Expr statement);
+		R visitForStatement(For statement);
 		R visitFunctionStatement(Function statement);
 		R visitIfStatement(If statement);
 		R visitPrintStatement(Print statement);
@@ -17,35 +38,43 @@ abstract class Statement
 		R visitWhileStatement(While statement);
 	}
 
-	abstract <R> R accept(Visitor<R> visitor);
+	public abstract <R> R accept(Visitor<R> visitor);
 
-	static class Block extends Statement
+	public static final class Block extends Statement
 	{
 		private final List<Statement> _statements;
+		private int _frameSize = -1;
 
 		public Block(List<Statement> statements)
 		{
+			super(BLOCK);
 			_statements = statements;
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitBlockStatement(this);
 		}
 
 		public List<Statement> getStatements() { return _statements; }
+		public int getFrameSize() { return _frameSize; }
+		public void setFrameSize(int frameSize) { _frameSize = frameSize; }
 	}
 
-	static class Class extends Statement
+	public static final class Class extends Statement
 	{
 		private final Token _name;
 		private final Expression.Variable _superclass;
 		private final List<Statement.Function> _staticMethods;
 		private final List<Statement.Function> _methods;
+		private int _slot;
+		private boolean _captured;
+		private int _superSlot;
 
 		public Class(Token name, Expression.Variable superclass, List<Statement.Function> staticMethods, List<Statement.Function> methods)
 		{
+			super(CLASS);
 			_name = name;
 			_superclass = superclass;
 			_staticMethods = staticMethods;
@@ -53,7 +82,7 @@ abstract class Statement
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitClassStatement(this);
 		}
@@ -62,19 +91,26 @@ abstract class Statement
 		public Expression.Variable getSuperclass() { return _superclass; }
 		public List<Statement.Function> getStaticMethods() { return _staticMethods; }
 		public List<Statement.Function> getMethods() { return _methods; }
+		public int getSlot() { return _slot; }
+		public void setSlot(int slot) { _slot = slot; }
+		public boolean getCaptured() { return _captured; }
+		public void setCaptured(boolean captured) { _captured = captured; }
+		public int getSuperSlot() { return _superSlot; }
+		public void setSuperSlot(int superSlot) { _superSlot = superSlot; }
 	}
 
-	static class Expr extends Statement
+	public static final class Expr extends Statement
 	{
 		private final Expression _expression;
 
 		public Expr(Expression expression)
 		{
+			super(EXPR);
 			_expression = expression;
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitExprStatement(this);
 		}
@@ -82,21 +118,68 @@ abstract class Statement
 		public Expression getExpression() { return _expression; }
 	}
 
-	static class Function extends Statement
+	public static final class For extends Statement
+	{
+		private final Token _keyword;
+		private final Statement _initializer;
+		private final Expression _condition;
+		private final Expression _increment;
+		private final Statement _body;
+		private int _frameSize = -1;
+		private boolean _counter;
+		private double _step;
+
+		public For(Token keyword, Statement initializer, Expression condition, Expression increment, Statement body)
+		{
+			super(FOR);
+			_keyword = keyword;
+			_initializer = initializer;
+			_condition = condition;
+			_increment = increment;
+			_body = body;
+		}
+
+		@Override
+		public <R> R accept(Visitor<R> visitor)
+		{
+			return visitor.visitForStatement(this);
+		}
+
+		public Token getKeyword() { return _keyword; }
+		public Statement getInitializer() { return _initializer; }
+		public Expression getCondition() { return _condition; }
+		public Expression getIncrement() { return _increment; }
+		public Statement getBody() { return _body; }
+		public int getFrameSize() { return _frameSize; }
+		public void setFrameSize(int frameSize) { _frameSize = frameSize; }
+		public boolean getCounter() { return _counter; }
+		public void setCounter(boolean counter) { _counter = counter; }
+		public double getStep() { return _step; }
+		public void setStep(double step) { _step = step; }
+	}
+
+	public static final class Function extends Statement
 	{
 		private final Token _name;
 		private final List<Token> _params;
 		private final List<Statement> _body;
+		private int _slot;
+		private boolean _captured;
+		private int _frameSize;
+		private int[] _capturedSlots = new int[0];
+		private Upvalue[] _upvalues = new Upvalue[0];
+		private me.shakedkod.lox.jit.Tier _tier = new me.shakedkod.lox.jit.Tier();
 
 		public Function(Token name, List<Token> params, List<Statement> body)
 		{
+			super(FUNCTION);
 			_name = name;
 			_params = params;
 			_body = body;
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitFunctionStatement(this);
 		}
@@ -104,9 +187,21 @@ abstract class Statement
 		public Token getName() { return _name; }
 		public List<Token> getParams() { return _params; }
 		public List<Statement> getBody() { return _body; }
+		public int getSlot() { return _slot; }
+		public void setSlot(int slot) { _slot = slot; }
+		public boolean getCaptured() { return _captured; }
+		public void setCaptured(boolean captured) { _captured = captured; }
+		public int getFrameSize() { return _frameSize; }
+		public void setFrameSize(int frameSize) { _frameSize = frameSize; }
+		public int[] getCapturedSlots() { return _capturedSlots; }
+		public void setCapturedSlots(int[] capturedSlots) { _capturedSlots = capturedSlots; }
+		public Upvalue[] getUpvalues() { return _upvalues; }
+		public void setUpvalues(Upvalue[] upvalues) { _upvalues = upvalues; }
+		public me.shakedkod.lox.jit.Tier getTier() { return _tier; }
+		public void setTier(me.shakedkod.lox.jit.Tier tier) { _tier = tier; }
 	}
 
-	static class If extends Statement
+	public static final class If extends Statement
 	{
 		private final Expression _condition;
 		private final Statement _thenBranch;
@@ -114,13 +209,14 @@ abstract class Statement
 
 		public If(Expression condition, Statement thenBranch, Statement elseBranch)
 		{
+			super(IF);
 			_condition = condition;
 			_thenBranch = thenBranch;
 			_elseBranch = elseBranch;
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitIfStatement(this);
 		}
@@ -130,17 +226,18 @@ abstract class Statement
 		public Statement getElseBranch() { return _elseBranch; }
 	}
 
-	static class Print extends Statement
+	public static final class Print extends Statement
 	{
 		private final Expression _expression;
 
 		public Print(Expression expression)
 		{
+			super(PRINT);
 			_expression = expression;
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitPrintStatement(this);
 		}
@@ -148,65 +245,80 @@ abstract class Statement
 		public Expression getExpression() { return _expression; }
 	}
 
-	static class Return extends Statement
+	public static final class Return extends Statement
 	{
 		private final Token _keyword;
 		private final Expression _value;
+		private boolean _tail;
 
 		public Return(Token keyword, Expression value)
 		{
+			super(RETURN);
 			_keyword = keyword;
 			_value = value;
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitReturnStatement(this);
 		}
 
 		public Token getKeyword() { return _keyword; }
 		public Expression getValue() { return _value; }
+		public boolean getTail() { return _tail; }
+		public void setTail(boolean tail) { _tail = tail; }
 	}
 
-	static class Var extends Statement
+	public static final class Var extends Statement
 	{
 		private final Token _name;
 		private final Expression _initializer;
+		private int _slot;
+		private boolean _captured;
 
 		public Var(Token name, Expression initializer)
 		{
+			super(VAR);
 			_name = name;
 			_initializer = initializer;
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitVarStatement(this);
 		}
 
 		public Token getName() { return _name; }
 		public Expression getInitializer() { return _initializer; }
+		public int getSlot() { return _slot; }
+		public void setSlot(int slot) { _slot = slot; }
+		public boolean getCaptured() { return _captured; }
+		public void setCaptured(boolean captured) { _captured = captured; }
 	}
 
-	static class While extends Statement
+	public static final class While extends Statement
 	{
+		private final Token _keyword;
 		private final Expression _condition;
 		private final Statement _body;
 
-		public While(Expression condition, Statement body)
+		public While(Token keyword, Expression condition, Statement body)
 		{
+			super(WHILE);
+			_keyword = keyword;
 			_condition = condition;
 			_body = body;
 		}
 
 		@Override
-		<R> R accept(Visitor<R> visitor)
+		public <R> R accept(Visitor<R> visitor)
 		{
 			return visitor.visitWhileStatement(this);
 		}
 
+		public Token getKeyword() { return _keyword; }
 		public Expression getCondition() { return _condition; }
 		public Statement getBody() { return _body; }
 	}
@@ -1,6 +1,6 @@
 package me.shakedkod.lox;
 
-enum TokenType
+public enum TokenType
 {
     // Single-character tokens.
     LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,
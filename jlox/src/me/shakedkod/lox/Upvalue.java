@@ -0,0 +1,26 @@
+package me.shakedkod.lox;
+
+// One variable a function captures, worked out by the Resolver. When the function is
+// declared its closure takes the Cell either from a slot of the frame it is declared
+// in, or from the cells that frame's own function captured.
+public final class Upvalue
+{
+    private final boolean _isLocal;
+    private final int _index;
+
+    public Upvalue(boolean isLocal, int index)
+    {
+        _isLocal = isLocal;
+        _index = index;
+    }
+
+    public boolean isLocal()
+    {
+        return _isLocal;
+    }
+
+    public int getIndex()
+    {
+        return _index;
+    }
+}
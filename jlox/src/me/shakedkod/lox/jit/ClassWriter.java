@@ -0,0 +1,163 @@
+package me.shakedkod.lox.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A minimal class-file writer: one class with no fields or interfaces and any number
+// of methods. Classes are written as version 49 so the JVM verifies them by type
+// inference, which means no stack map frames are needed.
+final class ClassWriter
+{
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private static final int VERSION = 49;
+    private static final int MAX_POOL = 65535;
+
+    private static final byte CONSTANT_UTF8 = 1;
+    private static final byte CONSTANT_CLASS = 7;
+    private static final byte CONSTANT_FIELDREF = 9;
+    private static final byte CONSTANT_METHODREF = 10;
+    private static final byte CONSTANT_INTERFACE_METHODREF = 11;
+    private static final byte CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream _poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream _pool = new DataOutputStream(_poolBytes);
+    private final Map<String, Integer> _poolIndices = new HashMap<>();
+    private int _poolCount = 1;
+
+    private final String _name;
+    private final String _superName;
+    private final List<MethodWriter> _methods = new ArrayList<>();
+
+    // names are internal names, e.g. "java/lang/Object"
+    ClassWriter(String name, String superName)
+    {
+        _name = name;
+        _superName = superName;
+    }
+
+    MethodWriter method(int access, String name, String descriptor)
+    {
+        MethodWriter method = new MethodWriter(this, access, utf8(name), utf8(descriptor), descriptor);
+        _methods.add(method);
+        return method;
+    }
+
+    byte[] toByteArray()
+    {
+        int thisClass = classRef(_name);
+        int superClass = classRef(_superName);
+        int code = utf8("Code");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try
+        {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+
+            out.writeShort(_poolCount);
+            _poolBytes.writeTo(out);
+
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+
+            out.writeShort(_methods.size());
+            for (MethodWriter method : _methods)
+                method.writeTo(out, code);
+
+            out.writeShort(0); // attributes
+        }
+        catch (IOException error)
+        {
+            // a ByteArrayOutputStream never throws
+            throw new IllegalStateException(error);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    // constant pool
+    int utf8(String value)
+    {
+        Integer index = _poolIndices.get("U" + value);
+        if (index != null) return index;
+
+        try
+        {
+            _pool.writeByte(CONSTANT_UTF8);
+            _pool.writeUTF(value);
+        }
+        catch (IOException error)
+        {
+            throw new IllegalStateException(error);
+        }
+        return add("U" + value);
+    }
+
+    int classRef(String name)
+    {
+        return entry(CONSTANT_CLASS, "C" + name, utf8(name), -1);
+    }
+
+    int fieldRef(String owner, String name, String descriptor)
+    {
+        return member(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor)
+    {
+        return member(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    int interfaceMethodRef(String owner, String name, String descriptor)
+    {
+        return member(CONSTANT_INTERFACE_METHODREF, owner, name, descriptor);
+    }
+
+    private int member(byte tag, String owner, String name, String descriptor)
+    {
+        int nameAndType = entry(CONSTANT_NAME_AND_TYPE, "N" + name + ":" + descriptor,
+                utf8(name), utf8(descriptor));
+        return entry(tag, tag + owner + "." + name + ":" + descriptor, classRef(owner), nameAndType);
+    }
+
+    // an entry made of one or two u2 indices
+    private int entry(byte tag, String key, int first, int second)
+    {
+        Integer index = _poolIndices.get(key);
+        if (index != null) return index;
+
+        try
+        {
+            _pool.writeByte(tag);
+            _pool.writeShort(first);
+            if (second != -1) _pool.writeShort(second);
+        }
+        catch (IOException error)
+        {
+            throw new IllegalStateException(error);
+        }
+        return add(key);
+    }
+
+    private int add(String key)
+    {
+        if (_poolCount == MAX_POOL)
+            throw new IllegalStateException("Too many constants in class " + _name + ".");
+
+        _poolIndices.put(key, _poolCount);
+        return _poolCount++;
+    }
+}
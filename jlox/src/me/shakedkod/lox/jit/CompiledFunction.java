@@ -0,0 +1,18 @@
+package me.shakedkod.lox.jit;
+
+import me.shakedkod.lox.Cell;
+import me.shakedkod.lox.Interpreter;
+
+// The base class of every class the jit generates. A generated call runs the body
+// of one Lox function, with receiver as `this` when it is a method; the tokens and literals it refers to live in _constants.
+public abstract class CompiledFunction
+{
+    protected final Object[] _constants;
+
+    protected CompiledFunction(Object[] constants)
+    {
+        _constants = constants;
+    }
+
+    public abstract Object call(Interpreter interpreter, Cell[] upvalues, Object receiver, Object[] arguments);
+}
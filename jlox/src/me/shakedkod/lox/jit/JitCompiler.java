@@ -0,0 +1,842 @@
+package me.shakedkod.lox.jit;
+
+import me.shakedkod.lox.Access;
+import me.shakedkod.lox.Expression;
+import me.shakedkod.lox.Statement;
+import me.shakedkod.lox.Token;
+import me.shakedkod.lox.TokenType;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static me.shakedkod.lox.jit.MethodWriter.*;
+
+// Compiles the body of a hot function into a JVM class, so HotSpot can inline it
+// and keep its locals in registers. The function's own locals become JVM locals
+// instead of Environment slots, which is only sound when nothing can capture them:
+// functions that declare functions or classes are left to the interpreter, while the
+// upvalues the function itself captured are read through their cells.
+final class JitCompiler implements Expression.Visitor<Void>, Statement.Visitor<Void>
+{
+    private static final String OBJECT = "java/lang/Object";
+    private static final String BOOLEAN = "java/lang/Boolean";
+    private static final String TOKEN = "me/shakedkod/lox/Token";
+    private static final String ENVIRONMENT = "me/shakedkod/lox/Environment";
+    private static final String CELL = "me/shakedkod/lox/Cell";
+    private static final String INTERPRETER = "me/shakedkod/lox/Interpreter";
+    private static final String PROPERTY_CACHE = "me/shakedkod/lox/PropertyCache";
+    private static final String COMPILED_FUNCTION = "me/shakedkod/lox/jit/CompiledFunction";
+    private static final String RUNTIME = "me/shakedkod/lox/jit/JitRuntime";
+    private static final String DECLARATION = "me/shakedkod/lox/Statement$Function";
+
+    private static final String CALL_DESCRIPTOR =
+            "(L" + INTERPRETER + ";[L" + CELL + ";L" + OBJECT + ";[L" + OBJECT + ";)L" + OBJECT + ";";
+    private static final String BINARY_DESCRIPTOR = "(L" + OBJECT + ";L" + OBJECT + ";L" + TOKEN + ";)L" + OBJECT + ";";
+    private static final String COMPARE_DESCRIPTOR = "(L" + OBJECT + ";L" + OBJECT + ";L" + TOKEN + ";)Z";
+
+    // the JVM locals of the generated call method
+    private static final int INTERPRETER_LOCAL = 1;
+    private static final int UPVALUES_LOCAL = 2;
+    private static final int RECEIVER_LOCAL = 3;
+    private static final int ARGUMENTS_LOCAL = 4;
+    private static final int CONSTANTS_LOCAL = 5;
+    private static final int GLOBALS_LOCAL = 6;
+    private static final int FIRST_LOCAL = 7;
+
+    private static final int MAX_CONSTANTS = Short.MAX_VALUE;
+
+    private static int _classCount = 0;
+
+    // thrown for anything the jit does not compile
+    private static class Unsupported extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported()
+        {
+            super(null, null, false, false);
+        }
+    }
+
+    // each generated class gets its own loader, so it can be unloaded with its function
+    private static class JitClassLoader extends ClassLoader
+    {
+        JitClassLoader()
+        {
+            super(JitCompiler.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes)
+        {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private final List<Object> _constants = new ArrayList<>();
+    private final Map<Object, Integer> _constantIndices = new IdentityHashMap<>();
+
+    private MethodWriter _code;
+
+    private JitCompiler() {}
+
+    // null when the function has to stay in the interpreter
+    static CompiledFunction compile(Statement.Function declaration, boolean isMethod)
+    {
+        String name = "me/shakedkod/lox/jit/Lox$" + declaration.getName().getLexeme() + "$" + _classCount++;
+
+        try
+        {
+            JitCompiler compiler = new JitCompiler();
+            byte[] bytes = compiler.compileClass(name, declaration, isMethod);
+
+            Class<?> klass = new JitClassLoader().define(name.replace('/', '.'), bytes);
+            return (CompiledFunction)klass.getConstructor(Object[].class)
+                    .newInstance((Object)compiler._constants.toArray());
+        }
+        // code the jit does not handle, or that outgrows a class file
+        catch (Unsupported | IllegalStateException error)
+        {
+            return null;
+        }
+        // a class the JVM rejects is a bug in the code generated for it, so it is reported even
+        // though the function still runs, interpreted
+        catch (ReflectiveOperationException | LinkageError error)
+        {
+            System.err.println("JIT could not load '" + declaration.getName().getLexeme() + "': " + error);
+            return null;
+        }
+    }
+
+    private byte[] compileClass(String name, Statement.Function declaration, boolean isMethod)
+    {
+        ClassWriter writer = new ClassWriter(name, COMPILED_FUNCTION);
+
+        MethodWriter constructor = writer.method(ClassWriter.ACC_PUBLIC, "<init>", "([L" + OBJECT + ";)V");
+        constructor.aload(0);
+        constructor.aload(1);
+        constructor.invokeSpecial(COMPILED_FUNCTION, "<init>", "([L" + OBJECT + ";)V");
+        constructor.op(RETURN, 0);
+
+        _code = writer.method(ClassWriter.ACC_PUBLIC, "call", CALL_DESCRIPTOR);
+        _code.aload(0);
+        _code.getField(COMPILED_FUNCTION, "_constants", "[L" + OBJECT + ";");
+        _code.astore(CONSTANTS_LOCAL);
+        _code.aload(INTERPRETER_LOCAL);
+        _code.invokeVirtual(INTERPRETER, "getGlobals", "()L" + ENVIRONMENT + ";");
+        _code.astore(GLOBALS_LOCAL);
+
+        int first = 0;
+        if (isMethod)
+        {
+            _code.aload(RECEIVER_LOCAL);
+            _code.astore(local(first++));
+        }
+        for (int i = 0; i < declaration.getParams().size(); i++)
+        {
+            _code.aload(ARGUMENTS_LOCAL);
+            _code.pushInt(i);
+            _code.op(AALOAD, -1);
+            _code.astore(local(first + i));
+        }
+
+        for (Statement statement : declaration.getBody())
+            compile(statement);
+
+        if (_code.isReachable())
+        {
+            _code.op(ACONST_NULL, 1);
+            _code.op(ARETURN, -1);
+        }
+
+        return writer.toByteArray();
+    }
+
+    // Functions & Classes & More
+    @Override
+    public Void visitClassStatement(Statement.Class statement)
+    {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitFunctionStatement(Statement.Function statement)
+    {
+        throw new Unsupported();
+    }
+
+    // STATEMENTS
+    @Override
+    public Void visitBlockStatement(Statement.Block statement)
+    {
+        // only a block at the top level has an Environment of its own, and those are
+        // never compiled, so every block shares the function's frame
+        if (statement.getFrameSize() != -1) throw new Unsupported();
+
+        for (Statement inner : statement.getStatements())
+            compile(inner);
+        return null;
+    }
+
+    @Override
+    public Void visitExprStatement(Statement.Expr statement)
+    {
+        compile(statement.getExpression());
+        _code.invokeStatic(RUNTIME, "expressionStatement", "(L" + OBJECT + ";)V");
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(Statement.Print statement)
+    {
+        compile(statement.getExpression());
+        _code.invokeStatic(RUNTIME, "print", "(L" + OBJECT + ";)V");
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStatement(Statement.Return statement)
+    {
+        if (statement.getTail())
+            call((Expression.Call)statement.getValue(), "tailCall");
+        else if (statement.getValue() != null)
+            compile(statement.getValue());
+        else
+            _code.op(ACONST_NULL, 1);
+
+        _code.op(ARETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStatement(Statement.Var statement)
+    {
+        if (statement.getInitializer() != null)
+            compile(statement.getInitializer());
+        else
+            _code.op(ACONST_NULL, 1);
+
+        _code.astore(local(statement.getSlot()));
+        return null;
+    }
+
+    @Override
+    public Void visitIfStatement(Statement.If statement)
+    {
+        Label elseBranch = new Label();
+        Label end = new Label();
+
+        condition(statement.getCondition(), elseBranch);
+        compile(statement.getThenBranch());
+        _code.jump(GOTO, end);
+
+        _code.mark(elseBranch);
+        if (statement.getElseBranch() != null)
+            compile(statement.getElseBranch());
+        _code.mark(end);
+        return null;
+    }
+
+    // the counter of a counting loop stays boxed here, where HotSpot can take the boxes away itself
+    @Override
+    public Void visitForStatement(Statement.For statement)
+    {
+        if (statement.getFrameSize() != -1) throw new Unsupported();
+
+        Label start = new Label();
+        Label exit = new Label();
+
+        if (statement.getInitializer() != null) compile(statement.getInitializer());
+        _code.mark(start);
+        if (statement.getCondition() != null) condition(statement.getCondition(), exit);
+        compile(statement.getBody());
+        if (statement.getIncrement() != null)
+        {
+            compile(statement.getIncrement());
+            _code.op(POP, -1);
+        }
+        _code.jump(GOTO, start);
+        _code.mark(exit);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(Statement.While statement)
+    {
+        Label start = new Label();
+        Label exit = new Label();
+
+        _code.mark(start);
+        condition(statement.getCondition(), exit);
+        compile(statement.getBody());
+        _code.jump(GOTO, start);
+        _code.mark(exit);
+        return null;
+    }
+
+    // EXPRESSIONS
+    @Override
+    public Void visitLiteralExpression(Expression.Literal expression)
+    {
+        Object value = expression.getValue();
+        if (value == null)
+            _code.op(ACONST_NULL, 1);
+        else if (value instanceof Boolean)
+            _code.getStatic(BOOLEAN, (boolean)value ? "TRUE" : "FALSE", "L" + BOOLEAN + ";");
+        else
+            constant(value, null);
+
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpression(Expression.Grouping expression)
+    {
+        return compile(expression.getExpression());
+    }
+
+    @Override
+    public Void visitUnaryExpression(Expression.Unary expression)
+    {
+        compile(expression.getRight());
+
+        switch (expression.getOperator().getType())
+        {
+            case MINUS:
+                constant(expression.getOperator(), TOKEN);
+                _code.invokeStatic(RUNTIME, "negate", "(L" + OBJECT + ";L" + TOKEN + ";)L" + OBJECT + ";");
+                break;
+            case BANG:
+                _code.invokeStatic(RUNTIME, "not", "(L" + OBJECT + ";)L" + OBJECT + ";");
+                break;
+            default:
+                throw new Unsupported();
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpression(Expression.Binary expression)
+    {
+        compile(expression.getLeft());
+        compile(expression.getRight());
+
+        switch (expression.getOperator().getType())
+        {
+            // equality
+            case BANG_EQUAL:
+                _code.invokeStatic(RUNTIME, "isEqual", "(L" + OBJECT + ";L" + OBJECT + ";)Z");
+                _code.pushInt(1);
+                _code.op(IXOR, -1);
+                box();
+                return null;
+            case EQUAL_EQUAL:
+                _code.invokeStatic(RUNTIME, "isEqual", "(L" + OBJECT + ";L" + OBJECT + ";)Z");
+                box();
+                return null;
+            default:
+                break;
+        }
+
+        constant(expression.getOperator(), TOKEN);
+        String comparison = comparison(expression.getOperator());
+        if (comparison != null)
+        {
+            _code.invokeStatic(RUNTIME, comparison, COMPARE_DESCRIPTOR);
+            box();
+            return null;
+        }
+
+        _code.invokeStatic(RUNTIME, arithmetic(expression.getOperator()), BINARY_DESCRIPTOR);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpression(Expression.Ternary expression)
+    {
+        Label ifFalse = new Label();
+        Label end = new Label();
+
+        condition(expression.getCondition(), ifFalse);
+        compile(expression.getIfTrue());
+        _code.jump(GOTO, end);
+
+        _code.mark(ifFalse);
+        compile(expression.getIfFalse());
+        _code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpression(Expression.Logical expression)
+    {
+        Label end = new Label();
+
+        compile(expression.getLeft());
+        _code.op(DUP, 1);
+        _code.invokeStatic(RUNTIME, "isTruthy", "(L" + OBJECT + ";)Z");
+        _code.jump(expression.getOperator().getType() == TokenType.OR ? IFNE : IFEQ, end);
+
+        _code.op(POP, -1);
+        compile(expression.getRight());
+        _code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpression(Expression.Set expression)
+    {
+        compile(expression.getObject());
+        constant(expression.getName(), TOKEN);
+        _code.invokeStatic(RUNTIME, "checkHasFields", "(L" + OBJECT + ";L" + TOKEN + ";)L" + OBJECT + ";");
+
+        compile(expression.getValue());
+        constant(expression.getName(), TOKEN);
+        constant(expression.getCache(), PROPERTY_CACHE);
+        _code.invokeStatic(RUNTIME, "set",
+                "(L" + OBJECT + ";L" + OBJECT + ";L" + TOKEN + ";L" + PROPERTY_CACHE + ";)L" + OBJECT + ";");
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpression(Expression.Super expression)
+    {
+        // "super" is always declared outside the method, so it is an upvalue, while
+        // "this" is the first slot of the method's own frame
+        load(expression.getAccess(), expression.getSlot());
+        compile(expression.getReceiver());
+        constant(expression.getMethod(), TOKEN);
+        _code.invokeStatic(RUNTIME, "superMethod",
+                "(L" + OBJECT + ";L" + OBJECT + ";L" + TOKEN + ";)L" + OBJECT + ";");
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpression(Expression.This expression)
+    {
+        load(expression.getAccess(), expression.getSlot());
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpression(Expression.Variable expression)
+    {
+        variable(expression.getAccess(), expression.getSlot(), expression.getName());
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpression(Expression.Assign expression)
+    {
+        Access access = expression.getAccess();
+        if (access == Access.GLOBAL)
+        {
+            _code.aload(GLOBALS_LOCAL);
+            _code.pushInt(expression.getSlot());
+            constant(expression.getName(), TOKEN);
+            compile(expression.getValue());
+            _code.invokeStatic(RUNTIME, "assignGlobal",
+                    "(L" + ENVIRONMENT + ";IL" + TOKEN + ";L" + OBJECT + ";)L" + OBJECT + ";");
+        }
+        else if (access == Access.LOCAL)
+        {
+            compile(expression.getValue());
+            _code.op(DUP, 1);
+            _code.astore(local(expression.getSlot()));
+        }
+        else if (access == Access.UPVALUE)
+        {
+            _code.aload(UPVALUES_LOCAL);
+            _code.pushInt(expression.getSlot());
+            compile(expression.getValue());
+            _code.invokeStatic(RUNTIME, "assignUpvalue",
+                    "([L" + CELL + ";IL" + OBJECT + ";)L" + OBJECT + ";");
+        }
+        else
+            throw new Unsupported();
+
+        return null;
+    }
+
+    @Override
+    public Void visitIncrementExpression(Expression.Increment expression)
+    {
+        Access access = expression.getAccess();
+        if (access == Access.GLOBAL)
+        {
+            _code.aload(GLOBALS_LOCAL);
+            _code.pushInt(expression.getSlot());
+            constant(expression.getName(), TOKEN);
+            increment(expression);
+            _code.invokeStatic(RUNTIME, "assignGlobal",
+                    "(L" + ENVIRONMENT + ";IL" + TOKEN + ";L" + OBJECT + ";)L" + OBJECT + ";");
+        }
+        else if (access == Access.LOCAL)
+        {
+            increment(expression);
+            _code.op(DUP, 1);
+            _code.astore(local(expression.getSlot()));
+        }
+        else if (access == Access.UPVALUE)
+        {
+            _code.aload(UPVALUES_LOCAL);
+            _code.pushInt(expression.getSlot());
+            increment(expression);
+            _code.invokeStatic(RUNTIME, "assignUpvalue",
+                    "([L" + CELL + ";IL" + OBJECT + ";)L" + OBJECT + ";");
+        }
+        else
+            throw new Unsupported();
+
+        return null;
+    }
+
+    @Override
+    public Void visitCompareExpression(Expression.Compare expression)
+    {
+        compare(expression);
+        box();
+        return null;
+    }
+
+    @Override
+    public Void visitHoistedExpression(Expression.Hoisted expression)
+    {
+        Label end = new Label();
+
+        _code.aload(local(expression.getSlot()));
+        _code.op(DUP, 1);
+        _code.jump(IFNONNULL, end);
+        _code.op(POP, -1);
+        compile(expression.getExpression());
+        _code.op(DUP, 1);
+        _code.invokeStatic(RUNTIME, "hoistable", "(L" + OBJECT + ";)L" + OBJECT + ";");
+        _code.astore(local(expression.getSlot()));
+        _code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpression(Expression.Call expression)
+    {
+        call(expression, "call");
+        return null;
+    }
+
+    // the copy of the body runs on the JVM locals of the slots it was given, unless the global
+    // no longer holds the function it was copied from
+    @Override
+    public Void visitInlineExpression(Expression.Inline expression)
+    {
+        variable(Access.GLOBAL, expression.getSlot(), expression.getName());
+        if (expression.getSlots() == null)
+        {
+            call(expression.getArguments(), expression.getParen());
+            return null;
+        }
+
+        Label fallback = new Label();
+        Label end = new Label();
+
+        _code.op(DUP, 1);
+        constant(expression.getFunction(), DECLARATION);
+        _code.invokeStatic(RUNTIME, "isFunction", "(L" + OBJECT + ";L" + DECLARATION + ";)Z");
+        _code.jump(IFEQ, fallback);
+        _code.op(POP, -1);
+        inline(expression.getSlots(), expression.getArguments(), expression.getBody());
+        _code.jump(GOTO, end);
+
+        _code.mark(fallback);
+        call(expression.getArguments(), expression.getParen());
+        _code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitInlineMethodExpression(Expression.InlineMethod expression)
+    {
+        compile(expression.getObject());
+        if (expression.getSlots() == null)
+        {
+            invoke(expression);
+            return null;
+        }
+
+        Label fallback = new Label();
+        Label end = new Label();
+
+        _code.op(DUP, 1);
+        constant(expression.getName(), TOKEN);
+        constant(expression.getCache(), PROPERTY_CACHE);
+        constant(expression.getFunction(), DECLARATION);
+        _code.invokeStatic(RUNTIME, "findsMethod",
+                "(L" + OBJECT + ";L" + TOKEN + ";L" + PROPERTY_CACHE + ";L" + DECLARATION + ";)Z");
+        _code.jump(IFEQ, fallback);
+        _code.astore(local(expression.getReceiverSlot()));
+        inline(expression.getSlots(), expression.getArguments(), expression.getBody());
+        _code.jump(GOTO, end);
+
+        _code.mark(fallback);
+        invoke(expression);
+        _code.mark(end);
+        return null;
+    }
+
+    private void inline(int[] slots, List<Expression> arguments, Expression body)
+    {
+        for (int i = 0; i < slots.length; i++)
+        {
+            compile(arguments.get(i));
+            _code.astore(local(slots[i]));
+        }
+        compile(body);
+    }
+
+    // calls the method of the receiver on the stack, found as a Get would find it
+    private void invoke(Expression.InlineMethod expression)
+    {
+        constant(expression.getName(), TOKEN);
+        constant(expression.getCache(), PROPERTY_CACHE);
+        _code.invokeStatic(RUNTIME, "get",
+                "(L" + OBJECT + ";L" + TOKEN + ";L" + PROPERTY_CACHE + ";)L" + OBJECT + ";");
+        call(expression.getArguments(), expression.getParen());
+    }
+
+    @Override
+    public Void visitCallGlobalExpression(Expression.CallGlobal expression)
+    {
+        variable(Access.GLOBAL, expression.getSlot(), expression.getName());
+        call(expression.getArguments(), expression.getParen());
+        return null;
+    }
+
+    // runtime is the JitRuntime method that makes the call, "call" or "tailCall"
+    private void call(Expression.Call expression, String runtime)
+    {
+        _code.aload(INTERPRETER_LOCAL);
+        compile(expression.getCallee());
+        call(expression.getArguments(), expression.getParen(), runtime);
+    }
+
+    // calls the callee on the stack
+    private void call(List<Expression> arguments, Token paren)
+    {
+        _code.aload(INTERPRETER_LOCAL);
+        _code.op(SWAP, 0);
+        call(arguments, paren, "call");
+    }
+
+    // calls the callee on top of the stack, with the interpreter under it
+    private void call(List<Expression> arguments, Token paren, String runtime)
+    {
+        _code.pushInt(arguments.size());
+        _code.type(ANEWARRAY, OBJECT);
+        for (int i = 0; i < arguments.size(); i++)
+        {
+            _code.op(DUP, 1);
+            _code.pushInt(i);
+            compile(arguments.get(i));
+            _code.op(AASTORE, -3);
+        }
+
+        constant(paren, TOKEN);
+        _code.invokeStatic(RUNTIME, runtime,
+                "(L" + INTERPRETER + ";L" + OBJECT + ";[L" + OBJECT + ";L" + TOKEN + ";)L" + OBJECT + ";");
+    }
+
+    @Override
+    public Void visitGetExpression(Expression.Get expression)
+    {
+        compile(expression.getObject());
+        constant(expression.getName(), TOKEN);
+        constant(expression.getCache(), PROPERTY_CACHE);
+        _code.invokeStatic(RUNTIME, "get",
+                "(L" + OBJECT + ";L" + TOKEN + ";L" + PROPERTY_CACHE + ";)L" + OBJECT + ";");
+        return null;
+    }
+
+    //----------------------//
+    //    helper methods    //
+    //----------------------//
+    private Void compile(Expression expression)
+    {
+        return expression.accept(this);
+    }
+
+    private void compile(Statement statement)
+    {
+        statement.accept(this);
+    }
+
+    // jumps to ifFalse unless the condition is truthy, without boxing comparisons
+    private void condition(Expression expression, Label ifFalse)
+    {
+        if (expression instanceof Expression.Grouping)
+        {
+            condition(((Expression.Grouping)expression).getExpression(), ifFalse);
+            return;
+        }
+
+        if (expression instanceof Expression.Compare)
+        {
+            compare((Expression.Compare)expression);
+            _code.jump(IFEQ, ifFalse);
+            return;
+        }
+
+        if (expression instanceof Expression.Binary)
+        {
+            Expression.Binary binary = (Expression.Binary)expression;
+            Token operator = binary.getOperator();
+            String comparison = comparison(operator);
+
+            if (comparison != null)
+            {
+                compile(binary.getLeft());
+                compile(binary.getRight());
+                constant(operator, TOKEN);
+                _code.invokeStatic(RUNTIME, comparison, COMPARE_DESCRIPTOR);
+                _code.jump(IFEQ, ifFalse);
+                return;
+            }
+
+            if (operator.getType() == TokenType.EQUAL_EQUAL ||
+                    operator.getType() == TokenType.BANG_EQUAL)
+            {
+                compile(binary.getLeft());
+                compile(binary.getRight());
+                _code.invokeStatic(RUNTIME, "isEqual", "(L" + OBJECT + ";L" + OBJECT + ";)Z");
+                _code.jump(operator.getType() == TokenType.EQUAL_EQUAL ? IFEQ : IFNE, ifFalse);
+                return;
+            }
+        }
+
+        if (expression instanceof Expression.Logical)
+        {
+            Expression.Logical logical = (Expression.Logical)expression;
+            if (logical.getOperator().getType() == TokenType.AND)
+            {
+                condition(logical.getLeft(), ifFalse);
+                condition(logical.getRight(), ifFalse);
+                return;
+            }
+
+            Label isTrue = new Label();
+            compile(logical.getLeft());
+            _code.invokeStatic(RUNTIME, "isTruthy", "(L" + OBJECT + ";)Z");
+            _code.jump(IFNE, isTrue);
+            condition(logical.getRight(), ifFalse);
+            _code.mark(isTrue);
+            return;
+        }
+
+        compile(expression);
+        _code.invokeStatic(RUNTIME, "isTruthy", "(L" + OBJECT + ";)Z");
+        _code.jump(IFEQ, ifFalse);
+    }
+
+    // the new value of a fused increment, left on the stack to be stored
+    private void increment(Expression.Increment expression)
+    {
+        variable(expression.getAccess(), expression.getSlot(), expression.getName());
+        constant(expression.getDelta(), null);
+        constant(expression.getOperator(), TOKEN);
+        _code.invokeStatic(RUNTIME, "increment", BINARY_DESCRIPTOR);
+    }
+
+    // a fused comparison, left on the stack unboxed
+    private void compare(Expression.Compare expression)
+    {
+        variable(expression.getAccess(), expression.getSlot(), expression.getName());
+        constant(expression.getConstant(), null);
+        constant(expression.getOperator(), TOKEN);
+        _code.invokeStatic(RUNTIME, comparison(expression.getOperator()), COMPARE_DESCRIPTOR);
+    }
+
+    private static String comparison(Token operator)
+    {
+        switch (operator.getType())
+        {
+            case GREATER: return "greater";
+            case GREATER_EQUAL: return "greaterEqual";
+            case LESS: return "less";
+            case LESS_EQUAL: return "lessEqual";
+            default: return null;
+        }
+    }
+
+    private static String arithmetic(Token operator)
+    {
+        switch (operator.getType())
+        {
+            case PLUS: return "add";
+            case MINUS: return "subtract";
+            case STAR: return "multiply";
+            case SLASH: return "divide";
+            default: throw new Unsupported();
+        }
+    }
+
+    private void box()
+    {
+        _code.invokeStatic(BOOLEAN, "valueOf", "(Z)L" + BOOLEAN + ";");
+    }
+
+    // pushes _constants[index of value], cast to type unless type is null
+    private void constant(Object value, String type)
+    {
+        Integer index = _constantIndices.get(value);
+        if (index == null)
+        {
+            if (_constants.size() == MAX_CONSTANTS) throw new Unsupported();
+
+            index = _constants.size();
+            _constants.add(value);
+            _constantIndices.put(value, index);
+        }
+
+        _code.aload(CONSTANTS_LOCAL);
+        _code.pushInt(index);
+        _code.op(AALOAD, -1);
+        if (type != null) _code.type(CHECKCAST, type);
+    }
+
+    // a resolved local is either a slot of the function's own frame, which lives in a
+    // JVM local, or one of the cells it captured. a function with cells of its own
+    // declares a closure, so it never gets here
+    private void load(Access access, int slot)
+    {
+        if (access == Access.LOCAL)
+        {
+            _code.aload(local(slot));
+            return;
+        }
+        if (access != Access.UPVALUE) throw new Unsupported();
+
+        _code.aload(UPVALUES_LOCAL);
+        _code.pushInt(slot);
+        _code.op(AALOAD, -1);
+        _code.invokeVirtual(CELL, "get", "()L" + OBJECT + ";");
+    }
+
+    private void variable(Access access, int slot, Token name)
+    {
+        if (access != Access.GLOBAL)
+        {
+            load(access, slot);
+            return;
+        }
+
+        _code.aload(GLOBALS_LOCAL);
+        _code.pushInt(slot);
+        constant(name, TOKEN);
+        _code.invokeVirtual(ENVIRONMENT, "getGlobal", "(IL" + TOKEN + ";)L" + OBJECT + ";");
+    }
+
+    private static int local(int slot)
+    {
+        return FIRST_LOCAL + slot;
+    }
+}
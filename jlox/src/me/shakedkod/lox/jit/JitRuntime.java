@@ -0,0 +1,210 @@
+package me.shakedkod.lox.jit;
+
+import me.shakedkod.lox.Cell;
+import me.shakedkod.lox.Environment;
+import me.shakedkod.lox.Interpreter;
+import me.shakedkod.lox.Lox;
+import me.shakedkod.lox.LoxCallable;
+import me.shakedkod.lox.LoxClass;
+import me.shakedkod.lox.LoxFunction;
+import me.shakedkod.lox.LoxInstance;
+import me.shakedkod.lox.PropertyCache;
+import me.shakedkod.lox.RuntimeError;
+import me.shakedkod.lox.Statement;
+import me.shakedkod.lox.Token;
+
+// What generated code calls into. Every operation checks and fails exactly like
+// the Interpreter does, so a function behaves the same before and after it is compiled.
+public final class JitRuntime
+{
+    private JitRuntime() {}
+
+    // operators
+    public static boolean isTruthy(Object value)
+    {
+        return Interpreter.isTruthy(value);
+    }
+
+    public static boolean isEqual(Object left, Object right)
+    {
+        return Interpreter.isEqual(left, right);
+    }
+
+    public static Object not(Object right)
+    {
+        return !Interpreter.isTruthy(right);
+    }
+
+    public static Object negate(Object right, Token operator)
+    {
+        Interpreter.checkNumberOperand(operator, right);
+        return -(double)right;
+    }
+
+    public static boolean greater(Object left, Object right, Token operator)
+    {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double)left > (double)right;
+    }
+
+    public static boolean greaterEqual(Object left, Object right, Token operator)
+    {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double)left >= (double)right;
+    }
+
+    public static boolean less(Object left, Object right, Token operator)
+    {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double)left < (double)right;
+    }
+
+    public static boolean lessEqual(Object left, Object right, Token operator)
+    {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double)left <= (double)right;
+    }
+
+    public static Object add(Object left, Object right, Token operator)
+    {
+        if (left instanceof Double && right instanceof Double)
+            return (double)left + (double)right;
+        if (left instanceof String && right instanceof String)
+            return (String)left + (String)right;
+
+        throw new RuntimeError(operator, "Operands must be two numbers or two strings");
+    }
+
+    public static Object subtract(Object left, Object right, Token operator)
+    {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double)left - (double)right;
+    }
+
+    public static Object multiply(Object left, Object right, Token operator)
+    {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double)left * (double)right;
+    }
+
+    public static Object divide(Object left, Object right, Token operator)
+    {
+        Interpreter.checkNumberOperands(operator, left, right);
+        if ((double)right == (double)0) throw new RuntimeError(operator,
+                "Dividing by 0 is not allowed.");
+        return (double)left / (double)right;
+    }
+
+    public static Object increment(Object value, Object delta, Token operator)
+    {
+        return Interpreter.increment(value, (double)delta, operator);
+    }
+
+    public static Object hoistable(Object value)
+    {
+        return Interpreter.hoistable(value);
+    }
+
+    // variables
+    public static Object assignUpvalue(Cell[] upvalues, int index, Object value)
+    {
+        upvalues[index].set(value);
+        return value;
+    }
+
+    public static Object assignGlobal(Environment globals, int slot, Token name, Object value)
+    {
+        globals.assignGlobal(slot, name, value);
+        return value;
+    }
+
+    // calls and objects
+    public static boolean isFunction(Object callee, Statement.Function declaration)
+    {
+        return callee instanceof LoxFunction && ((LoxFunction)callee).getDeclaration() == declaration;
+    }
+
+    // whether receiver calls the method declared by declaration when it calls name
+    public static boolean findsMethod(Object receiver, Token name, PropertyCache cache, Statement.Function declaration)
+    {
+        if (!(receiver instanceof LoxInstance)) return false;
+        LoxFunction method = cache.findMethod((LoxInstance)receiver, name);
+        return method != null && method.getDeclaration() == declaration;
+    }
+
+    public static Object call(Interpreter interpreter, Object callee, Object[] arguments, Token paren)
+    {
+        return checkCallable(callee, arguments, paren).call(interpreter, arguments);
+    }
+
+    // a call in tail position; a Lox function is left for the caller's trampoline to run
+    public static Object tailCall(Interpreter interpreter, Object callee, Object[] arguments, Token paren)
+    {
+        LoxCallable function = checkCallable(callee, arguments, paren);
+        if (function instanceof LoxFunction)
+            return ((LoxFunction)function).tailCall(interpreter, arguments);
+        return function.call(interpreter, arguments);
+    }
+
+    private static LoxCallable checkCallable(Object callee, Object[] arguments, Token paren)
+    {
+        if (!(callee instanceof LoxCallable))
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+
+        LoxCallable function = (LoxCallable)callee;
+        if (arguments.length != function.arity())
+            throw new RuntimeError(paren,
+                    "Expected " + function.arity() + " arguments but got " + arguments.length + "."
+            );
+        return function;
+    }
+
+    public static Object get(Object object, Token name, PropertyCache cache)
+    {
+        if (object instanceof LoxInstance)
+            return cache.get((LoxInstance)object, name);
+
+        throw new RuntimeError(name, "Only instances have properties.");
+    }
+
+    // the object of a set is checked before its value is evaluated
+    public static Object checkHasFields(Object object, Token name)
+    {
+        if (!(object instanceof LoxInstance))
+            throw new RuntimeError(name, "Only instances have fields.");
+        return object;
+    }
+
+    public static Object set(Object object, Object value, Token name, PropertyCache cache)
+    {
+        cache.set((LoxInstance)object, name, value);
+        return value;
+    }
+
+    public static Object superMethod(Object superclass, Object receiver, Token method)
+    {
+        LoxInstance object = (LoxInstance)receiver;
+
+        LoxFunction function = ((LoxClass)superclass).findMethod(method.getLexeme());
+        if (function == null)
+        {
+            function = ((LoxClass)superclass).findStaticMethod(method.getLexeme());
+
+            if (function == null) throw new RuntimeError(method,
+                    "Undefined property '" + method.getLexeme() + "'.");
+        }
+
+        return function.bind(object);
+    }
+
+    // statements
+    public static void print(Object value)
+    {
+        System.out.println(Interpreter.stringify(value));
+    }
+
+    public static void expressionStatement(Object value)
+    {
+        if (Lox.isREPL()) print(value);
+    }
+}
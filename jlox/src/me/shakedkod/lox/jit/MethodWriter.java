@@ -0,0 +1,304 @@
+package me.shakedkod.lox.jit;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// The code of one method. Every emit keeps track of the operand stack depth, so
+// max_stack comes for free; only the handful of opcodes the jit needs are here.
+final class MethodWriter
+{
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int ALOAD = 0x19;
+    static final int AALOAD = 0x32;
+    static final int ASTORE = 0x3A;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int SWAP = 0x5F;
+    static final int IXOR = 0x82;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9A;
+    static final int GOTO = 0xA7;
+    static final int ARETURN = 0xB0;
+    static final int RETURN = 0xB1;
+    static final int GETSTATIC = 0xB2;
+    static final int GETFIELD = 0xB4;
+    static final int INVOKEVIRTUAL = 0xB6;
+    static final int INVOKESPECIAL = 0xB7;
+    static final int INVOKESTATIC = 0xB8;
+    static final int INVOKEINTERFACE = 0xB9;
+    static final int ANEWARRAY = 0xBD;
+    static final int CHECKCAST = 0xC0;
+    static final int IFNONNULL = 0xC7;
+
+    private static final int MAX_CODE = 65535;
+
+    // a branch target; jumps to it before it is marked are patched when it is
+    static final class Label
+    {
+        private int _position = -1;
+        private int _stack = -1;
+        private final List<Integer> _fixups = new ArrayList<>();
+    }
+
+    private final ClassWriter _owner;
+    private final int _access;
+    private final int _name;
+    private final int _descriptor;
+
+    private byte[] _code = new byte[256];
+    private int _length = 0;
+    private int _stack = 0;
+    private int _maxStack = 0;
+    private int _maxLocals;
+    private boolean _isReachable = true;
+
+    MethodWriter(ClassWriter owner, int access, int name, int descriptor, String descriptorText)
+    {
+        _owner = owner;
+        _access = access;
+        _name = name;
+        _descriptor = descriptor;
+        _maxLocals = 1 + argumentSlots(descriptorText);
+    }
+
+    // simple instructions
+    void op(int opcode, int stackEffect)
+    {
+        u1(opcode);
+        adjust(stackEffect);
+
+        if (opcode == ARETURN || opcode == RETURN)
+            _isReachable = false;
+    }
+
+    void aload(int local)
+    {
+        local(ALOAD, local);
+        adjust(1);
+    }
+
+    void astore(int local)
+    {
+        local(ASTORE, local);
+        adjust(-1);
+    }
+
+    void pushInt(int value)
+    {
+        if (value >= -1 && value <= 5)
+            u1(ICONST_0 + value);
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+        {
+            u1(BIPUSH);
+            u1(value);
+        }
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+        {
+            u1(SIPUSH);
+            u2(value);
+        }
+        else
+            throw new IllegalStateException("Integer constant out of range.");
+
+        adjust(1);
+    }
+
+    // references to the constant pool
+    void getStatic(String owner, String name, String descriptor)
+    {
+        u1(GETSTATIC);
+        u2(_owner.fieldRef(owner, name, descriptor));
+        adjust(1);
+    }
+
+    void getField(String owner, String name, String descriptor)
+    {
+        u1(GETFIELD);
+        u2(_owner.fieldRef(owner, name, descriptor));
+    }
+
+    void invokeStatic(String owner, String name, String descriptor)
+    {
+        u1(INVOKESTATIC);
+        u2(_owner.methodRef(owner, name, descriptor));
+        adjust(returnSlots(descriptor) - argumentSlots(descriptor));
+    }
+
+    void invokeVirtual(String owner, String name, String descriptor)
+    {
+        invoke(INVOKEVIRTUAL, _owner.methodRef(owner, name, descriptor), descriptor);
+    }
+
+    void invokeSpecial(String owner, String name, String descriptor)
+    {
+        invoke(INVOKESPECIAL, _owner.methodRef(owner, name, descriptor), descriptor);
+    }
+
+    void invokeInterface(String owner, String name, String descriptor)
+    {
+        u1(INVOKEINTERFACE);
+        u2(_owner.interfaceMethodRef(owner, name, descriptor));
+        u1(1 + argumentSlots(descriptor));
+        u1(0);
+        adjust(returnSlots(descriptor) - argumentSlots(descriptor) - 1);
+    }
+
+    void type(int opcode, String name)
+    {
+        u1(opcode);
+        u2(_owner.classRef(name));
+    }
+
+    // branches
+    void jump(int opcode, Label target)
+    {
+        int at = _length;
+        u1(opcode);
+        adjust(opcode == GOTO ? 0 : -1);
+
+        if (target._stack == -1) target._stack = _stack;
+
+        if (target._position != -1)
+            u2(offset(at, target._position));
+        else
+        {
+            target._fixups.add(at);
+            u2(0);
+        }
+
+        if (opcode == GOTO)
+            _isReachable = false;
+    }
+
+    void mark(Label label)
+    {
+        label._position = _length;
+        for (int at : label._fixups)
+        {
+            int offset = offset(at, _length);
+            _code[at + 1] = (byte)(offset >> 8);
+            _code[at + 2] = (byte)offset;
+        }
+
+        // code after a goto is only reached through the label, at the depth it was jumped to with
+        if (!_isReachable && label._stack != -1) _stack = label._stack;
+        else label._stack = _stack;
+        _isReachable = true;
+    }
+
+    boolean isReachable()
+    {
+        return _isReachable;
+    }
+
+    void writeTo(DataOutputStream out, int codeAttribute) throws IOException
+    {
+        out.writeShort(_access);
+        out.writeShort(_name);
+        out.writeShort(_descriptor);
+        out.writeShort(1);
+
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + _length);
+        out.writeShort(_maxStack);
+        out.writeShort(_maxLocals);
+        out.writeInt(_length);
+        out.write(_code, 0, _length);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    //----------------------//
+    //    helper methods    //
+    //----------------------//
+    private void invoke(int opcode, int method, String descriptor)
+    {
+        u1(opcode);
+        u2(method);
+        adjust(returnSlots(descriptor) - argumentSlots(descriptor) - 1);
+    }
+
+    private void local(int opcode, int local)
+    {
+        if (local > 255)
+        {
+            u1(0xC4); // wide
+            u1(opcode);
+            u2(local);
+        }
+        else
+        {
+            u1(opcode);
+            u1(local);
+        }
+
+        _maxLocals = Math.max(_maxLocals, local + 1);
+    }
+
+    private int offset(int from, int to)
+    {
+        int offset = to - from;
+        if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+            throw new IllegalStateException("Branch too far.");
+        return offset;
+    }
+
+    private void adjust(int stackEffect)
+    {
+        _stack += stackEffect;
+        _maxStack = Math.max(_maxStack, _stack);
+    }
+
+    private void u1(int value)
+    {
+        if (_length == _code.length)
+        {
+            if (_length == MAX_CODE) throw new IllegalStateException("Method too large.");
+            _code = Arrays.copyOf(_code, Math.min(_length * 2, MAX_CODE));
+        }
+
+        _code[_length++] = (byte)value;
+    }
+
+    private void u2(int value)
+    {
+        u1(value >> 8);
+        u1(value);
+    }
+
+    // slots taken by the arguments and the return value of a method descriptor
+    private static int argumentSlots(String descriptor)
+    {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')')
+        {
+            char type = descriptor.charAt(i);
+            boolean isArray = false;
+            while (type == '[')
+            {
+                isArray = true;
+                type = descriptor.charAt(++i);
+            }
+            if (type == 'L') i = descriptor.indexOf(';', i);
+
+            slots += !isArray && (type == 'J' || type == 'D') ? 2 : 1;
+            i++;
+        }
+        return slots;
+    }
+
+    private static int returnSlots(String descriptor)
+    {
+        char type = descriptor.charAt(descriptor.indexOf(')') + 1);
+        if (type == 'V') return 0;
+        return type == 'J' || type == 'D' ? 2 : 1;
+    }
+}
@@ -0,0 +1,36 @@
+package me.shakedkod.lox.jit;
+
+import me.shakedkod.lox.Statement;
+
+// Counts the calls of one function declaration and, once it gets hot, holds its
+// compiled code. The declaration keeps its Tier, so every closure and bound method made
+// from it shares one class; the compiled code is passed the upvalues it runs with.
+public final class Tier
+{
+    private static boolean _isEnabled = true;
+    private static int _threshold = 1000;
+
+    private int _calls = 0;
+    private CompiledFunction _code = null;
+
+    // the compiled body, or null while the function should keep being interpreted
+    public CompiledFunction code(Statement.Function declaration, boolean isMethod)
+    {
+        if (_code != null || _calls == -1) return _code;
+        if (!_isEnabled || ++_calls < _threshold) return null;
+
+        _code = JitCompiler.compile(declaration, isMethod);
+        if (_code == null) _calls = -1;
+        return _code;
+    }
+
+    public static void setEnabled(boolean isEnabled)
+    {
+        _isEnabled = isEnabled;
+    }
+
+    public static void setThreshold(int threshold)
+    {
+        _threshold = threshold;
+    }
+}
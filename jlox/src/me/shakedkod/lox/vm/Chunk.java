@@ -0,0 +1,72 @@
+package me.shakedkod.lox.vm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// A compiled function body: the instruction stream, the source line of every
+// byte in it, and the constant pool its instructions index into.
+public class Chunk
+{
+    private byte[] _code = new byte[64];
+    private int[] _lines = new int[64];
+    private int _count = 0;
+
+    private Object[] _constants = new Object[16];
+    private int _constantCount = 0;
+    private final Map<Object, Integer> _constantIndices = new HashMap<>();
+
+    public void write(byte value, int line)
+    {
+        if (_count == _code.length)
+        {
+            _code = Arrays.copyOf(_code, _count * 2);
+            _lines = Arrays.copyOf(_lines, _count * 2);
+        }
+
+        _code[_count] = value;
+        _lines[_count] = line;
+        _count++;
+    }
+
+    // numbers and strings (names included) are shared, functions always get their own entry
+    public int addConstant(Object value)
+    {
+        boolean isShareable = value instanceof Double || value instanceof String;
+        if (isShareable && _constantIndices.containsKey(value))
+            return _constantIndices.get(value);
+
+        if (_constantCount == _constants.length)
+            _constants = Arrays.copyOf(_constants, _constantCount * 2);
+
+        _constants[_constantCount] = value;
+        if (isShareable) _constantIndices.put(value, _constantCount);
+        return _constantCount++;
+    }
+
+    void patch(int offset, byte value)
+    {
+        _code[offset] = value;
+    }
+
+    // getters
+    public byte[] getCode()
+    {
+        return _code;
+    }
+
+    public int[] getLines()
+    {
+        return _lines;
+    }
+
+    public Object[] getConstants()
+    {
+        return _constants;
+    }
+
+    public int getCount()
+    {
+        return _count;
+    }
+}
@@ -0,0 +1,951 @@
+package me.shakedkod.lox.vm;
+
+import me.shakedkod.lox.Access;
+import me.shakedkod.lox.Expression;
+import me.shakedkod.lox.Lox;
+import me.shakedkod.lox.Statement;
+import me.shakedkod.lox.Token;
+import me.shakedkod.lox.TokenType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static me.shakedkod.lox.vm.OpCode.*;
+
+// Compiles a resolved syntax tree into bytecode for the VM. Scoping works like
+// clox: locals live in stack slots and closures capture them through upvalues,
+// so the depth/slot pairs the Resolver stores for Environments are not used.
+public class Compiler implements Expression.Visitor<Void>, Statement.Visitor<Void>
+{
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+    private static final int MAX_CONSTANTS = 65536;
+    private static final int MAX_JUMP = 65535;
+
+    private enum FunctionType
+    {
+        SCRIPT,
+        FUNCTION,
+        INITIALIZER,
+        METHOD
+    }
+
+    private static class Local
+    {
+        private final String _name;
+        private int _depth;
+        private boolean _isCaptured = false;
+
+        Local(String name, int depth)
+        {
+            _name = name;
+            _depth = depth;
+        }
+    }
+
+    private static class Upvalue
+    {
+        private final int _index;
+        private final boolean _isLocal;
+
+        Upvalue(int index, boolean isLocal)
+        {
+            _index = index;
+            _isLocal = isLocal;
+        }
+    }
+
+    // the state of the function currently being compiled
+    private static class FunctionState
+    {
+        private final FunctionState _enclosing;
+        private final ObjFunction _function;
+        private final FunctionType _type;
+        private final List<Local> _locals = new ArrayList<>();
+        private final List<Upvalue> _upvalues = new ArrayList<>();
+        private int _scopeDepth = 0;
+        private int _stackDepth = 1;
+
+        FunctionState(FunctionState enclosing, ObjFunction function, FunctionType type)
+        {
+            _enclosing = enclosing;
+            _function = function;
+            _type = type;
+
+            // slot 0 holds the receiver in methods, and the called function otherwise
+            _locals.add(new Local(type == FunctionType.FUNCTION || type == FunctionType.SCRIPT ? "" : "this", 0));
+        }
+    }
+
+    private static class ClassState
+    {
+        private final ClassState _enclosing;
+        private boolean _hasSuperclass = false;
+
+        ClassState(ClassState enclosing)
+        {
+            _enclosing = enclosing;
+        }
+    }
+
+    private final VM _vm;
+    private final boolean _isREPL;
+    private FunctionState _current = null;
+    private ClassState _currentClass = null;
+    private int _line = 0;
+    private boolean _hadError = false;
+
+    public Compiler(VM vm, boolean isREPL)
+    {
+        _vm = vm;
+        _isREPL = isREPL;
+    }
+
+    // returns null if the program could not be compiled
+    public ObjFunction compile(List<Statement> statements)
+    {
+        _current = new FunctionState(null, new ObjFunction(null), FunctionType.SCRIPT);
+        _hadError = false;
+
+        for (Statement statement : statements)
+            compile(statement);
+
+        ObjFunction function = endFunction();
+        return _hadError ? null : function;
+    }
+
+    // Functions & Classes & More
+    @Override
+    public Void visitClassStatement(Statement.Class statement)
+    {
+        Token name = statement.getName();
+        _line = name.getLine();
+        declareVariable(name);
+
+        emitOp(OP_CLASS, 1);
+        emitShort(identifierConstant(name));
+        defineVariable(name);
+
+        ClassState classState = new ClassState(_currentClass);
+        _currentClass = classState;
+
+        if (statement.getSuperclass() != null)
+        {
+            beginScope();
+            compile(statement.getSuperclass());
+            addLocal("super");
+            markInitialized();
+
+            namedVariable(name, false);
+            _line = statement.getSuperclass().getName().getLine();
+            emitOp(OP_INHERIT, -1);
+            classState._hasSuperclass = true;
+        }
+
+        namedVariable(name, false);
+        for (Statement.Function method : statement.getMethods())
+        {
+            FunctionType type = FunctionType.METHOD;
+            if (method.getName().getLexeme().equals("init"))
+                type = FunctionType.INITIALIZER;
+
+            function(method, type);
+            _line = method.getName().getLine();
+            emitOp(OP_METHOD, -1);
+            emitShort(identifierConstant(method.getName()));
+        }
+
+        for (Statement.Function method : statement.getStaticMethods())
+        {
+            function(method, FunctionType.METHOD);
+            _line = method.getName().getLine();
+            emitOp(OP_STATIC_METHOD, -1);
+            emitShort(identifierConstant(method.getName()));
+        }
+        emitOp(OP_POP, -1);
+
+        if (classState._hasSuperclass) endScope();
+        _currentClass = classState._enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStatement(Statement.Function statement)
+    {
+        declareVariable(statement.getName());
+        markInitialized();
+
+        function(statement, FunctionType.FUNCTION);
+        defineVariable(statement.getName());
+        return null;
+    }
+
+    // STATEMENTS
+    @Override
+    public Void visitBlockStatement(Statement.Block statement)
+    {
+        beginScope();
+        for (Statement inner : statement.getStatements())
+            compile(inner);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExprStatement(Statement.Expr statement)
+    {
+        compile(statement.getExpression());
+
+        if (_isREPL) emitOp(OP_PRINT, -1);
+        else emitOp(OP_POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(Statement.Print statement)
+    {
+        compile(statement.getExpression());
+        emitOp(OP_PRINT, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStatement(Statement.Return statement)
+    {
+        _line = statement.getKeyword().getLine();
+
+        if (statement.getValue() == null)
+            emitReturn();
+        else
+        {
+            compile(statement.getValue());
+            emitOp(OP_RETURN, -1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarStatement(Statement.Var statement)
+    {
+        declareVariable(statement.getName());
+
+        if (statement.getInitializer() != null)
+            compile(statement.getInitializer());
+        else
+            emitOp(OP_NIL, 1);
+
+        defineVariable(statement.getName());
+        return null;
+    }
+
+    @Override
+    public Void visitIfStatement(Statement.If statement)
+    {
+        compile(statement.getCondition());
+
+        int thenJump = emitJump(OP_JUMP_IF_FALSE);
+        emitOp(OP_POP, -1);
+        compile(statement.getThenBranch());
+
+        int elseJump = emitJump(OP_JUMP);
+        patchJump(thenJump);
+        _current._stackDepth++; // the condition is still there when the jump lands here
+        emitOp(OP_POP, -1);
+
+        if (statement.getElseBranch() != null)
+            compile(statement.getElseBranch());
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitForStatement(Statement.For statement)
+    {
+        beginScope();
+        if (statement.getInitializer() != null) compile(statement.getInitializer());
+
+        int loopStart = chunk().getCount();
+        int exitJump = -1;
+        if (statement.getCondition() != null)
+        {
+            compile(statement.getCondition());
+            exitJump = emitJump(OP_JUMP_IF_FALSE);
+            emitOp(OP_POP, -1);
+        }
+
+        compile(statement.getBody());
+        if (statement.getIncrement() != null)
+        {
+            compile(statement.getIncrement());
+            emitOp(OP_POP, -1);
+        }
+        emitLoop(loopStart);
+
+        if (exitJump != -1)
+        {
+            patchJump(exitJump);
+            _current._stackDepth++; // the condition is still there when the jump lands here
+            emitOp(OP_POP, -1);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(Statement.While statement)
+    {
+        int loopStart = chunk().getCount();
+        compile(statement.getCondition());
+
+        int exitJump = emitJump(OP_JUMP_IF_FALSE);
+        emitOp(OP_POP, -1);
+        compile(statement.getBody());
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        _current._stackDepth++; // the condition is still there when the jump lands here
+        emitOp(OP_POP, -1);
+        return null;
+    }
+
+    // EXPRESSIONS
+    @Override
+    public Void visitLiteralExpression(Expression.Literal expression)
+    {
+        Object value = expression.getValue();
+
+        if (value == null) emitOp(OP_NIL, 1);
+        else if (value.equals(true)) emitOp(OP_TRUE, 1);
+        else if (value.equals(false)) emitOp(OP_FALSE, 1);
+        else emitConstant(value);
+
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpression(Expression.Grouping expression)
+    {
+        compile(expression.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpression(Expression.Unary expression)
+    {
+        compile(expression.getRight());
+
+        _line = expression.getOperator().getLine();
+        switch (expression.getOperator().getType())
+        {
+            case MINUS: emitOp(OP_NEGATE, 0); break;
+            case BANG: emitOp(OP_NOT, 0); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpression(Expression.Binary expression)
+    {
+        compile(expression.getLeft());
+        compile(expression.getRight());
+
+        _line = expression.getOperator().getLine();
+        switch (expression.getOperator().getType())
+        {
+            // equality
+            case BANG_EQUAL: emitOp(OP_NOT_EQUAL, -1); break;
+            case EQUAL_EQUAL: emitOp(OP_EQUAL, -1); break;
+            // comparison operators
+            case GREATER: emitOp(OP_GREATER, -1); break;
+            case GREATER_EQUAL: emitOp(OP_GREATER_EQUAL, -1); break;
+            case LESS: emitOp(OP_LESS, -1); break;
+            case LESS_EQUAL: emitOp(OP_LESS_EQUAL, -1); break;
+            // arithmetic operators
+            case MINUS: emitOp(OP_SUBTRACT, -1); break;
+            case PLUS: emitOp(OP_ADD, -1); break;
+            case SLASH: emitOp(OP_DIVIDE, -1); break;
+            case STAR: emitOp(OP_MULTIPLY, -1); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpression(Expression.Ternary expression)
+    {
+        compile(expression.getCondition());
+
+        int elseJump = emitJump(OP_JUMP_IF_FALSE);
+        emitOp(OP_POP, -1);
+        compile(expression.getIfTrue());
+
+        // the condition is still there when the jump lands, in place of the value of ifTrue
+        int endJump = emitJump(OP_JUMP);
+        patchJump(elseJump);
+        emitOp(OP_POP, -1);
+        compile(expression.getIfFalse());
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpression(Expression.Logical expression)
+    {
+        compile(expression.getLeft());
+
+        if (expression.getOperator().getType() == TokenType.OR)
+        {
+            int elseJump = emitJump(OP_JUMP_IF_FALSE);
+            int endJump = emitJump(OP_JUMP);
+
+            patchJump(elseJump);
+            emitOp(OP_POP, -1);
+            compile(expression.getRight());
+            patchJump(endJump);
+        }
+        else
+        {
+            int endJump = emitJump(OP_JUMP_IF_FALSE);
+
+            emitOp(OP_POP, -1);
+            compile(expression.getRight());
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpression(Expression.Set expression)
+    {
+        compile(expression.getObject());
+        compile(expression.getValue());
+
+        _line = expression.getName().getLine();
+        emitOp(OP_SET_PROPERTY, -1);
+        emitShort(identifierConstant(expression.getName()));
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpression(Expression.Super expression)
+    {
+        int name = identifierConstant(expression.getMethod());
+
+        namedVariable(syntheticToken("this", expression.getKeyword()), false);
+        namedVariable(syntheticToken("super", expression.getKeyword()), false);
+
+        _line = expression.getMethod().getLine();
+        emitOp(OP_GET_SUPER, -1);
+        emitShort(name);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpression(Expression.This expression)
+    {
+        namedVariable(expression.getKeyword(), false);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpression(Expression.Variable expression)
+    {
+        namedVariable(expression.getName(), false);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpression(Expression.Assign expression)
+    {
+        compile(expression.getValue());
+        namedVariable(expression.getName(), true);
+        return null;
+    }
+
+    // the fused nodes have no instructions of their own here, a bytecode instruction is no
+    // node visit to save, so they compile to what the code they replaced compiled to
+    @Override
+    public Void visitIncrementExpression(Expression.Increment expression)
+    {
+        namedVariable(expression.getName(), false);
+
+        _line = expression.getOperator().getLine();
+        if (expression.getOperator().getType() == TokenType.MINUS)
+        {
+            emitConstant(-expression.getDelta());
+            emitOp(OP_SUBTRACT, -1);
+        }
+        else
+        {
+            emitConstant(expression.getDelta());
+            emitOp(OP_ADD, -1);
+        }
+
+        namedVariable(expression.getName(), true);
+        return null;
+    }
+
+    @Override
+    public Void visitCompareExpression(Expression.Compare expression)
+    {
+        namedVariable(expression.getName(), false);
+
+        _line = expression.getOperator().getLine();
+        emitConstant(expression.getConstant());
+        switch (expression.getOperator().getType())
+        {
+            case GREATER: emitOp(OP_GREATER, -1); break;
+            case GREATER_EQUAL: emitOp(OP_GREATER_EQUAL, -1); break;
+            case LESS: emitOp(OP_LESS, -1); break;
+            case LESS_EQUAL: emitOp(OP_LESS_EQUAL, -1); break;
+        }
+        return null;
+    }
+
+    // the temporary of a hoisted expression is declared like any other local, but left unused
+    // here; the VM evaluates the expression every time, as it was written
+    @Override
+    public Void visitHoistedExpression(Expression.Hoisted expression)
+    {
+        compile(expression.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitCallGlobalExpression(Expression.CallGlobal expression)
+    {
+        List<Expression> arguments = expression.getArguments();
+        namedVariable(expression.getName(), false);
+        compileArguments(arguments);
+
+        _line = expression.getParen().getLine();
+        emitOp(OP_CALL, -arguments.size());
+        emitByte((byte)arguments.size());
+        return null;
+    }
+
+    // the VM resolves its own locals, so an inlined body has no slots here to run in; the calls
+    // are made as they were written
+    @Override
+    public Void visitInlineExpression(Expression.Inline expression)
+    {
+        List<Expression> arguments = expression.getArguments();
+        namedVariable(expression.getName(), false);
+        compileArguments(arguments);
+
+        _line = expression.getParen().getLine();
+        emitOp(OP_CALL, -arguments.size());
+        emitByte((byte)arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitInlineMethodExpression(Expression.InlineMethod expression)
+    {
+        List<Expression> arguments = expression.getArguments();
+        compile(expression.getObject());
+        checkProperty(OP_CHECK_PROPERTY, expression.getName(), arguments);
+        compileArguments(arguments);
+
+        _line = expression.getName().getLine();
+        emitOp(OP_INVOKE, -arguments.size());
+        emitShort(identifierConstant(expression.getName()));
+        _line = expression.getParen().getLine();
+        emitByte((byte)arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpression(Expression.Call expression)
+    {
+        List<Expression> arguments = expression.getArguments();
+
+        // receiver.name(...) and super.name(...) call the method without binding it first
+        if (expression.getCallee() instanceof Expression.Get)
+        {
+            Expression.Get get = (Expression.Get)expression.getCallee();
+            compile(get.getObject());
+            checkProperty(OP_CHECK_PROPERTY, get.getName(), arguments);
+            compileArguments(arguments);
+
+            _line = get.getName().getLine();
+            emitOp(OP_INVOKE, -arguments.size());
+            emitShort(identifierConstant(get.getName()));
+            _line = expression.getParen().getLine();
+            emitByte((byte)arguments.size());
+            return null;
+        }
+
+        if (expression.getCallee() instanceof Expression.Super)
+        {
+            Expression.Super callee = (Expression.Super)expression.getCallee();
+            namedVariable(syntheticToken("this", callee.getKeyword()), false);
+            if (!isQuiet(arguments))
+            {
+                namedVariable(syntheticToken("super", callee.getKeyword()), false);
+                checkProperty(OP_CHECK_SUPER, callee.getMethod(), arguments);
+            }
+            compileArguments(arguments);
+            namedVariable(syntheticToken("super", callee.getKeyword()), false);
+
+            _line = callee.getMethod().getLine();
+            emitOp(OP_SUPER_INVOKE, -arguments.size() - 1);
+            emitShort(identifierConstant(callee.getMethod()));
+            _line = expression.getParen().getLine();
+            emitByte((byte)arguments.size());
+            return null;
+        }
+
+        compile(expression.getCallee());
+        compileArguments(arguments);
+
+        _line = expression.getParen().getLine();
+        emitOp(OP_CALL, -arguments.size());
+        emitByte((byte)arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpression(Expression.Get expression)
+    {
+        compile(expression.getObject());
+
+        _line = expression.getName().getLine();
+        emitOp(OP_GET_PROPERTY, 0);
+        emitShort(identifierConstant(expression.getName()));
+        return null;
+    }
+
+    //----------------------//
+    //    helper methods    //
+    //----------------------//
+    private void compile(Statement statement)
+    {
+        statement.accept(this);
+    }
+
+    private void compile(Expression expression)
+    {
+        expression.accept(this);
+    }
+
+    private void compileArguments(List<Expression> arguments)
+    {
+        for (Expression argument : arguments)
+            compile(argument);
+    }
+
+    // the other engines look a method up before they evaluate its arguments, so a missing one
+    // fails before any of them runs; OP_CHECK_SUPER takes the superclass off the stack
+    private void checkProperty(byte check, Token name, List<Expression> arguments)
+    {
+        if (isQuiet(arguments)) return;
+
+        _line = name.getLine();
+        emitOp(check, check == OP_CHECK_SUPER ? -1 : 0);
+        emitShort(identifierConstant(name));
+    }
+
+    // whether the arguments can neither fail nor have an effect, which leaves nothing to check
+    // for; a global may be undefined
+    private static boolean isQuiet(List<Expression> arguments)
+    {
+        for (Expression argument : arguments)
+        {
+            if (argument instanceof Expression.Literal || argument instanceof Expression.This) continue;
+            if (argument instanceof Expression.Variable &&
+                    ((Expression.Variable)argument).getAccess() != Access.GLOBAL) continue;
+            return false;
+        }
+        return true;
+    }
+
+    private void function(Statement.Function declaration, FunctionType type)
+    {
+        _line = declaration.getName().getLine();
+        ObjFunction function = new ObjFunction(declaration.getName().getLexeme());
+        function.setArity(declaration.getParams().size());
+        _current = new FunctionState(_current, function, type);
+        beginScope();
+
+        for (Token param : declaration.getParams())
+        {
+            declareVariable(param);
+            markInitialized();
+            _current._stackDepth++;
+        }
+        for (Statement statement : declaration.getBody())
+            compile(statement);
+
+        FunctionState state = _current;
+        endFunction();
+
+        _line = declaration.getName().getLine();
+        emitOp(OP_CLOSURE, 1);
+        emitShort(makeConstant(function));
+        for (Upvalue upvalue : state._upvalues)
+        {
+            emitByte((byte)(upvalue._isLocal ? 1 : 0));
+            emitByte((byte)upvalue._index);
+        }
+    }
+
+    private ObjFunction endFunction()
+    {
+        emitReturn();
+
+        ObjFunction function = _current._function;
+        function.setUpvalueCount(_current._upvalues.size());
+        _current = _current._enclosing;
+        return function;
+    }
+
+    // scopes
+    private void beginScope()
+    {
+        _current._scopeDepth++;
+    }
+
+    private void endScope()
+    {
+        _current._scopeDepth--;
+
+        List<Local> locals = _current._locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1)._depth > _current._scopeDepth)
+        {
+            if (locals.get(locals.size() - 1)._isCaptured)
+                emitOp(OP_CLOSE_UPVALUE, -1);
+            else
+                emitOp(OP_POP, -1);
+
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    // variables
+    private void namedVariable(Token name, boolean isAssignment)
+    {
+        byte getOp, setOp;
+        int argument = resolveLocal(_current, name.getLexeme());
+
+        if (argument != -1)
+        {
+            getOp = OP_GET_LOCAL;
+            setOp = OP_SET_LOCAL;
+        }
+        else if ((argument = resolveUpvalue(_current, name)) != -1)
+        {
+            getOp = OP_GET_UPVALUE;
+            setOp = OP_SET_UPVALUE;
+        }
+        else
+        {
+            _line = name.getLine();
+            emitOp(isAssignment ? OP_SET_GLOBAL : OP_GET_GLOBAL, isAssignment ? 0 : 1);
+            emitShort(globalSlot(name));
+            return;
+        }
+
+        _line = name.getLine();
+        emitOp(isAssignment ? setOp : getOp, isAssignment ? 0 : 1);
+        emitByte((byte)argument);
+    }
+
+    private int resolveLocal(FunctionState state, String name)
+    {
+        for (int i = state._locals.size() - 1; i >= 0; i--)
+            if (state._locals.get(i)._name.equals(name))
+                return i;
+
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, Token name)
+    {
+        if (state._enclosing == null) return -1;
+
+        int local = resolveLocal(state._enclosing, name.getLexeme());
+        if (local != -1)
+        {
+            state._enclosing._locals.get(local)._isCaptured = true;
+            return addUpvalue(state, local, true, name);
+        }
+
+        int upvalue = resolveUpvalue(state._enclosing, name);
+        if (upvalue != -1)
+            return addUpvalue(state, upvalue, false, name);
+
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal, Token name)
+    {
+        for (int i = 0; i < state._upvalues.size(); i++)
+        {
+            Upvalue upvalue = state._upvalues.get(i);
+            if (upvalue._index == index && upvalue._isLocal == isLocal)
+                return i;
+        }
+
+        if (state._upvalues.size() == MAX_UPVALUES)
+        {
+            error(name, "Too many closure variables in function.");
+            return 0;
+        }
+
+        state._upvalues.add(new Upvalue(index, isLocal));
+        return state._upvalues.size() - 1;
+    }
+
+    private void declareVariable(Token name)
+    {
+        if (_current._scopeDepth == 0) return;
+
+        if (_current._locals.size() == MAX_LOCALS)
+        {
+            error(name, "Too many local variables in function.");
+            return;
+        }
+        addLocal(name.getLexeme());
+    }
+
+    private void addLocal(String name)
+    {
+        _current._locals.add(new Local(name, -1));
+    }
+
+    private void markInitialized()
+    {
+        if (_current._scopeDepth == 0) return;
+        _current._locals.get(_current._locals.size() - 1)._depth = _current._scopeDepth;
+    }
+
+    // a global goes into its slot, a local simply stays in the stack slot it was computed into
+    private void defineVariable(Token name)
+    {
+        if (_current._scopeDepth > 0)
+        {
+            markInitialized();
+            return;
+        }
+
+        emitOp(OP_DEFINE_GLOBAL, -1);
+        emitShort(globalSlot(name));
+    }
+
+    private int globalSlot(Token name)
+    {
+        int slot = _vm.globalSlot(name.getLexeme());
+        if (slot == -1)
+        {
+            error(name, "Too many global variables.");
+            return 0;
+        }
+        return slot;
+    }
+
+    private int identifierConstant(Token name)
+    {
+        return makeConstant(name.getLexeme());
+    }
+
+    private Token syntheticToken(String text, Token at)
+    {
+        return new Token(TokenType.IDENTIFIER, text, null, at.getLine());
+    }
+
+    // emitting bytecode
+    private Chunk chunk()
+    {
+        return _current._function.getChunk();
+    }
+
+    private void emitByte(byte value)
+    {
+        chunk().write(value, _line);
+    }
+
+    // stackEffect is how many values the instruction leaves on the stack minus how many it takes
+    private void emitOp(byte op, int stackEffect)
+    {
+        emitByte(op);
+
+        _current._stackDepth += stackEffect;
+        if (_current._stackDepth > _current._function.getMaxStack())
+            _current._function.setMaxStack(_current._stackDepth);
+    }
+
+    private void emitShort(int value)
+    {
+        emitByte((byte)((value >> 8) & 0xff));
+        emitByte((byte)(value & 0xff));
+    }
+
+    private void emitConstant(Object value)
+    {
+        emitOp(OP_CONSTANT, 1);
+        emitShort(makeConstant(value));
+    }
+
+    private int makeConstant(Object value)
+    {
+        int constant = chunk().addConstant(value);
+        if (constant >= MAX_CONSTANTS)
+        {
+            error(null, "Too many constants in one chunk.");
+            return 0;
+        }
+        return constant;
+    }
+
+    private void emitReturn()
+    {
+        if (_current._type == FunctionType.INITIALIZER)
+        {
+            emitOp(OP_GET_LOCAL, 1);
+            emitByte((byte)0);
+        }
+        else
+            emitOp(OP_NIL, 1);
+
+        emitOp(OP_RETURN, -1);
+    }
+
+    private int emitJump(byte op)
+    {
+        emitOp(op, 0);
+        emitByte((byte)0xff);
+        emitByte((byte)0xff);
+        return chunk().getCount() - 2;
+    }
+
+    private void patchJump(int offset)
+    {
+        int jump = chunk().getCount() - offset - 2;
+        if (jump > MAX_JUMP)
+            error(null, "Too much code to jump over.");
+
+        chunk().patch(offset, (byte)((jump >> 8) & 0xff));
+        chunk().patch(offset + 1, (byte)(jump & 0xff));
+    }
+
+    private void emitLoop(int loopStart)
+    {
+        emitOp(OP_LOOP, 0);
+
+        int offset = chunk().getCount() - loopStart + 2;
+        if (offset > MAX_JUMP)
+            error(null, "Loop body too large.");
+
+        emitByte((byte)((offset >> 8) & 0xff));
+        emitByte((byte)(offset & 0xff));
+    }
+
+    private void error(Token token, String message)
+    {
+        if (token == null)
+            token = new Token(TokenType.IDENTIFIER, "", null, _line);
+
+        Lox.error(token, message);
+        _hadError = true;
+    }
+}
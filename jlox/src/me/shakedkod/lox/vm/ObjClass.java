@@ -0,0 +1,40 @@
+package me.shakedkod.lox.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Like LoxClass, a class is also an instance: fields can be set on it, but
+// reading a property of a class only ever finds its static methods.
+public class ObjClass extends ObjInstance
+{
+    final String name;
+    final Map<String, ObjClosure> methods = new HashMap<>();
+    final Map<String, ObjClosure> staticMethods = new HashMap<>();
+    ObjClosure initializer = null;
+
+    ObjClass(String name)
+    {
+        super(null);
+        this.name = name;
+    }
+
+    // OP_INHERIT copies the superclass' methods down before the subclass' own ones
+    // are added, so a lookup never has to walk the hierarchy.
+    void inherit(ObjClass superclass)
+    {
+        methods.putAll(superclass.methods);
+        staticMethods.putAll(superclass.staticMethods);
+        initializer = superclass.initializer;
+    }
+
+    int arity()
+    {
+        return initializer == null ? 0 : initializer.function.getArity();
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+}
@@ -0,0 +1,19 @@
+package me.shakedkod.lox.vm;
+
+public class ObjClosure
+{
+    final ObjFunction function;
+    final ObjUpvalue[] upvalues;
+
+    ObjClosure(ObjFunction function)
+    {
+        this.function = function;
+        this.upvalues = new ObjUpvalue[function.getUpvalueCount()];
+    }
+
+    @Override
+    public String toString()
+    {
+        return function.toString();
+    }
+}
@@ -0,0 +1,65 @@
+package me.shakedkod.lox.vm;
+
+// A function as the compiler leaves it - code, but no captured variables yet.
+public class ObjFunction
+{
+    private final String _name;
+    private final Chunk _chunk = new Chunk();
+    private int _arity = 0;
+    private int _upvalueCount = 0;
+    private int _maxStack = 0;
+
+    public ObjFunction(String name)
+    {
+        _name = name;
+    }
+
+    @Override
+    public String toString()
+    {
+        if (_name == null) return "<script>";
+        return "<fn " + _name + ">";
+    }
+
+    // getters & setters
+    public String getName()
+    {
+        return _name;
+    }
+
+    public Chunk getChunk()
+    {
+        return _chunk;
+    }
+
+    public int getArity()
+    {
+        return _arity;
+    }
+
+    void setArity(int arity)
+    {
+        _arity = arity;
+    }
+
+    public int getUpvalueCount()
+    {
+        return _upvalueCount;
+    }
+
+    void setUpvalueCount(int upvalueCount)
+    {
+        _upvalueCount = upvalueCount;
+    }
+
+    // the most stack slots a call of this function can use, its own locals included
+    public int getMaxStack()
+    {
+        return _maxStack;
+    }
+
+    void setMaxStack(int maxStack)
+    {
+        _maxStack = maxStack;
+    }
+}
@@ -0,0 +1,24 @@
+package me.shakedkod.lox.vm;
+
+public class ObjNative
+{
+    interface NativeFn
+    {
+        Object call(Object[] stack, int argumentsStart);
+    }
+
+    final int arity;
+    final NativeFn function;
+
+    ObjNative(int arity, NativeFn function)
+    {
+        this.arity = arity;
+        this.function = function;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<native fn>";
+    }
+}
@@ -0,0 +1,21 @@
+package me.shakedkod.lox.vm;
+
+// A variable captured by a closure. While the variable is still on the stack the
+// upvalue is open and points at its slot; once the slot goes away the value is
+// moved into the upvalue itself.
+class ObjUpvalue
+{
+    int location;
+    Object closed = null;
+    ObjUpvalue next = null;
+
+    ObjUpvalue(int location)
+    {
+        this.location = location;
+    }
+
+    boolean isOpen()
+    {
+        return location != -1;
+    }
+}
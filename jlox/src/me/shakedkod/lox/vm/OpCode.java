@@ -0,0 +1,65 @@
+package me.shakedkod.lox.vm;
+
+// The instruction set of the VM, modeled on clox. Each instruction is one byte,
+// followed by its operands: "u8" operands take one byte, "u16" operands two
+// (high byte first).
+final class OpCode
+{
+    private OpCode() {}
+
+    // value
+    static final byte OP_CONSTANT = 0;           // u16 constant
+    // literals
+    static final byte OP_NIL = 1;
+    static final byte OP_TRUE = 2;
+    static final byte OP_FALSE = 3;
+    static final byte OP_POP = 4;
+    // variables
+    static final byte OP_GET_LOCAL = 5;          // u8 slot
+    static final byte OP_SET_LOCAL = 6;          // u8 slot
+    static final byte OP_GET_GLOBAL = 7;         // u16 global slot
+    static final byte OP_DEFINE_GLOBAL = 8;      // u16 global slot
+    static final byte OP_SET_GLOBAL = 9;         // u16 global slot
+    static final byte OP_GET_UPVALUE = 10;       // u8 index
+    static final byte OP_SET_UPVALUE = 11;       // u8 index
+    // properties
+    static final byte OP_GET_PROPERTY = 12;      // u16 name
+    static final byte OP_SET_PROPERTY = 13;      // u16 name
+    static final byte OP_GET_SUPER = 14;         // u16 name
+    // unary operators
+    static final byte OP_NEGATE = 15;
+    static final byte OP_NOT = 16;
+    // equality & comparison operators
+    static final byte OP_EQUAL = 17;
+    static final byte OP_NOT_EQUAL = 18;
+    static final byte OP_GREATER = 19;
+    static final byte OP_GREATER_EQUAL = 20;
+    static final byte OP_LESS = 21;
+    static final byte OP_LESS_EQUAL = 22;
+    // binary operators
+    static final byte OP_ADD = 23;
+    static final byte OP_SUBTRACT = 24;
+    static final byte OP_MULTIPLY = 25;
+    static final byte OP_DIVIDE = 26;
+    // statements
+    static final byte OP_PRINT = 27;
+    // control flow
+    static final byte OP_JUMP = 28;              // u16 forward offset
+    static final byte OP_JUMP_IF_FALSE = 29;     // u16 forward offset, leaves the condition
+    static final byte OP_LOOP = 30;              // u16 backward offset
+    // functions
+    static final byte OP_CALL = 31;              // u8 argument count
+    static final byte OP_INVOKE = 32;            // u16 name, u8 argument count
+    static final byte OP_SUPER_INVOKE = 33;      // u16 name, u8 argument count
+    static final byte OP_CLOSURE = 34;           // u16 function, then (u8 isLocal, u8 index) per upvalue
+    static final byte OP_CLOSE_UPVALUE = 35;
+    static final byte OP_RETURN = 36;
+    // classes
+    static final byte OP_CLASS = 37;             // u16 name
+    static final byte OP_INHERIT = 38;
+    static final byte OP_METHOD = 39;            // u16 name
+    static final byte OP_STATIC_METHOD = 40;     // u16 name
+    // checks ahead of the arguments of an invoke
+    static final byte OP_CHECK_PROPERTY = 41;    // u16 name, leaves the receiver
+    static final byte OP_CHECK_SUPER = 42;       // u16 name
+}
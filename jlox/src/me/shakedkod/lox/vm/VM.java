@@ -0,0 +1,660 @@
+package me.shakedkod.lox.vm;
+
+import me.shakedkod.lox.Interpreter;
+import me.shakedkod.lox.RuntimeError;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static me.shakedkod.lox.vm.OpCode.*;
+
+// A stack-based bytecode VM for the code produced by the Compiler, following the
+// design of clox's vm.c. Its output and runtime errors match the tree-walking
+// Interpreter's. Lox calls live on the VM's own stacks rather than the Java one, so
+// recursion can go as deep as the stack budget allows and then fails as a RuntimeError.
+public class VM
+{
+    private static final int MAX_GLOBALS = 65536;
+    private static final int INITIAL_STACK = 1024;
+    private static final int INITIAL_FRAMES = 64;
+
+    // what the call stack is charged against the budget: a reference for every value
+    // slot and a CallFrame for every call
+    private static final int SLOT_BYTES = 8;
+    private static final int FRAME_BYTES = 32;
+    private static long _stackBudget = 64L << 20;
+
+    // what a global slot holds until its variable is defined
+    private static final Object UNDEFINED = new Object();
+
+    private static class CallFrame
+    {
+        private ObjClosure _closure;
+        private int _ip;
+        private int _base;
+    }
+
+    private Object[] _stack = new Object[INITIAL_STACK];
+    private int _stackTop = 0;
+    private CallFrame[] _frames = new CallFrame[INITIAL_FRAMES];
+    private int _frameCount = 0;
+    private ObjUpvalue _openUpvalues = null;
+
+    // globals are interned into slots when they are compiled, so the instructions
+    // carry a slot instead of a name to look up
+    private final Map<String, Integer> _globalSlots = new HashMap<>();
+    private String[] _globalNames = new String[64];
+    private Object[] _globals = new Object[64];
+
+    public VM()
+    {
+        Arrays.fill(_globals, UNDEFINED);
+        _globals[globalSlot("clock")] = new ObjNative(0, (stack, start) -> System.currentTimeMillis() / 1000.0);
+    }
+
+    // the slot of the global named name, made on first use; -1 if there are too many
+    int globalSlot(String name)
+    {
+        Integer slot = _globalSlots.get(name);
+        if (slot != null) return slot;
+
+        int created = _globalSlots.size();
+        if (created == MAX_GLOBALS) return -1;
+
+        if (created == _globals.length)
+        {
+            _globalNames = Arrays.copyOf(_globalNames, created * 2);
+            _globals = Arrays.copyOf(_globals, created * 2);
+            Arrays.fill(_globals, created, created * 2, UNDEFINED);
+        }
+
+        _globalNames[created] = name;
+        _globalSlots.put(name, created);
+        return created;
+    }
+
+    // runs a compiled script; throws RuntimeError, leaving the VM ready for the next script
+    public void interpret(ObjFunction script)
+    {
+        ObjClosure closure = new ObjClosure(script);
+        push(closure);
+
+        try
+        {
+            call(closure, 0, 0);
+            run();
+        }
+        finally
+        {
+            // a deep recursion leaves the stacks grown; they go back to their first
+            // size so nothing the script left on them stays reachable
+            if (_stack.length > INITIAL_STACK) _stack = new Object[INITIAL_STACK];
+            else Arrays.fill(_stack, 0, _stackTop, null);
+            if (_frames.length > INITIAL_FRAMES) _frames = new CallFrame[INITIAL_FRAMES];
+
+            _stackTop = 0;
+            _frameCount = 0;
+            _openUpvalues = null;
+        }
+    }
+
+    // the most memory, in megabytes, the value and call stacks may take up together
+    public static void setStackBudget(int megabytes)
+    {
+        _stackBudget = (long)megabytes << 20;
+    }
+
+    private void run()
+    {
+        CallFrame frame = _frames[_frameCount - 1];
+        ObjClosure closure = frame._closure;
+        byte[] code = closure.function.getChunk().getCode();
+        Object[] constants = closure.function.getChunk().getConstants();
+        int ip = frame._ip;
+        int base = frame._base;
+
+        // the stack and its top are kept in locals and only written back before
+        // anything that can look at them, or grow the stack, gets called
+        Object[] stack = _stack;
+        int sp = _stackTop;
+
+        while (true)
+        {
+            byte instruction = code[ip++];
+            switch (instruction)
+            {
+                // value
+                case OP_CONSTANT:
+                    stack[sp++] = constants[readShort(code, ip)];
+                    ip += 2;
+                    break;
+                // literals
+                case OP_NIL: stack[sp++] = null; break;
+                case OP_TRUE: stack[sp++] = true; break;
+                case OP_FALSE: stack[sp++] = false; break;
+                case OP_POP: sp--; break;
+                // variables
+                case OP_GET_LOCAL:
+                    stack[sp++] = stack[base + (code[ip++] & 0xff)];
+                    break;
+                case OP_SET_LOCAL:
+                    stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+                    break;
+                case OP_GET_GLOBAL:
+                {
+                    int slot = readShort(code, ip);
+                    ip += 2;
+                    Object value = _globals[slot];
+                    if (value == UNDEFINED)
+                        throw error(closure, ip - 3, "Undefined variable '" + _globalNames[slot] + "'.");
+                    stack[sp++] = value;
+                    break;
+                }
+                case OP_DEFINE_GLOBAL:
+                    _globals[readShort(code, ip)] = stack[--sp];
+                    ip += 2;
+                    break;
+                case OP_SET_GLOBAL:
+                {
+                    int slot = readShort(code, ip);
+                    ip += 2;
+                    if (_globals[slot] == UNDEFINED)
+                        throw error(closure, ip - 3, "Undefined variable '" + _globalNames[slot] + "'.");
+                    _globals[slot] = stack[sp - 1];
+                    break;
+                }
+                case OP_GET_UPVALUE:
+                {
+                    ObjUpvalue upvalue = closure.upvalues[code[ip++] & 0xff];
+                    stack[sp++] = upvalue.isOpen() ? stack[upvalue.location] : upvalue.closed;
+                    break;
+                }
+                case OP_SET_UPVALUE:
+                {
+                    ObjUpvalue upvalue = closure.upvalues[code[ip++] & 0xff];
+                    if (upvalue.isOpen()) stack[upvalue.location] = stack[sp - 1];
+                    else upvalue.closed = stack[sp - 1];
+                    break;
+                }
+                // properties
+                case OP_GET_PROPERTY:
+                {
+                    String name = (String)constants[readShort(code, ip)];
+                    ip += 2;
+                    stack[sp - 1] = getProperty(stack[sp - 1], name, closure, ip - 3);
+                    break;
+                }
+                case OP_SET_PROPERTY:
+                {
+                    String name = (String)constants[readShort(code, ip)];
+                    ip += 2;
+                    Object object = stack[sp - 2];
+                    if (!(object instanceof ObjInstance))
+                        throw error(closure, ip - 3, "Only instances have fields.");
+
+                    Object value = stack[--sp];
+                    ((ObjInstance)object).fields.put(name, value);
+                    stack[sp - 1] = value;
+                    break;
+                }
+                case OP_CHECK_PROPERTY:
+                {
+                    String name = (String)constants[readShort(code, ip)];
+                    ip += 2;
+                    checkProperty(stack[sp - 1], name, closure, ip - 3);
+                    break;
+                }
+                case OP_CHECK_SUPER:
+                {
+                    String name = (String)constants[readShort(code, ip)];
+                    ip += 2;
+                    findSuperMethod((ObjClass)stack[--sp], name, closure, ip - 3);
+                    break;
+                }
+                case OP_GET_SUPER:
+                {
+                    String name = (String)constants[readShort(code, ip)];
+                    ip += 2;
+                    ObjClass superclass = (ObjClass)stack[--sp];
+                    ObjClosure method = findSuperMethod(superclass, name, closure, ip - 3);
+                    stack[sp - 1] = new ObjBoundMethod(stack[sp - 1], method);
+                    break;
+                }
+                // unary operators
+                case OP_NEGATE:
+                    if (!(stack[sp - 1] instanceof Double))
+                        throw error(closure, ip - 1, "Operand must be a number.");
+                    stack[sp - 1] = -(double)stack[sp - 1];
+                    break;
+                case OP_NOT:
+                    stack[sp - 1] = !isTruthy(stack[sp - 1]);
+                    break;
+                // equality & comparison operators
+                case OP_EQUAL:
+                    sp--;
+                    stack[sp - 1] = isEqual(stack[sp - 1], stack[sp]);
+                    break;
+                case OP_NOT_EQUAL:
+                    sp--;
+                    stack[sp - 1] = !isEqual(stack[sp - 1], stack[sp]);
+                    break;
+                case OP_GREATER:
+                    sp--;
+                    checkNumberOperands(stack[sp - 1], stack[sp], closure, ip - 1);
+                    stack[sp - 1] = (double)stack[sp - 1] > (double)stack[sp];
+                    break;
+                case OP_GREATER_EQUAL:
+                    sp--;
+                    checkNumberOperands(stack[sp - 1], stack[sp], closure, ip - 1);
+                    stack[sp - 1] = (double)stack[sp - 1] >= (double)stack[sp];
+                    break;
+                case OP_LESS:
+                    sp--;
+                    checkNumberOperands(stack[sp - 1], stack[sp], closure, ip - 1);
+                    stack[sp - 1] = (double)stack[sp - 1] < (double)stack[sp];
+                    break;
+                case OP_LESS_EQUAL:
+                    sp--;
+                    checkNumberOperands(stack[sp - 1], stack[sp], closure, ip - 1);
+                    stack[sp - 1] = (double)stack[sp - 1] <= (double)stack[sp];
+                    break;
+                // binary operators
+                case OP_ADD:
+                {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    if (a instanceof Double && b instanceof Double)
+                        stack[sp - 1] = (double)a + (double)b;
+                    else if (a instanceof String && b instanceof String)
+                        stack[sp - 1] = (String)a + (String)b;
+                    else
+                        throw error(closure, ip - 1, "Operands must be two numbers or two strings");
+                    break;
+                }
+                case OP_SUBTRACT:
+                    sp--;
+                    checkNumberOperands(stack[sp - 1], stack[sp], closure, ip - 1);
+                    stack[sp - 1] = (double)stack[sp - 1] - (double)stack[sp];
+                    break;
+                case OP_MULTIPLY:
+                    sp--;
+                    checkNumberOperands(stack[sp - 1], stack[sp], closure, ip - 1);
+                    stack[sp - 1] = (double)stack[sp - 1] * (double)stack[sp];
+                    break;
+                case OP_DIVIDE:
+                    sp--;
+                    checkNumberOperands(stack[sp - 1], stack[sp], closure, ip - 1);
+                    if ((double)stack[sp] == (double)0)
+                        throw error(closure, ip - 1, "Dividing by 0 is not allowed.");
+                    stack[sp - 1] = (double)stack[sp - 1] / (double)stack[sp];
+                    break;
+                // statements
+                case OP_PRINT:
+                    System.out.println(Interpreter.stringify(stack[--sp]));
+                    break;
+                // control flow
+                case OP_JUMP:
+                    ip += readShort(code, ip) + 2;
+                    break;
+                case OP_JUMP_IF_FALSE:
+                    if (!isTruthy(stack[sp - 1])) ip += readShort(code, ip);
+                    ip += 2;
+                    break;
+                case OP_LOOP:
+                    ip -= readShort(code, ip) - 2;
+                    break;
+                // functions
+                case OP_CALL:
+                case OP_INVOKE:
+                case OP_SUPER_INVOKE:
+                {
+                    _stackTop = sp;
+                    if (instruction == OP_CALL)
+                    {
+                        int argumentCount = code[ip++] & 0xff;
+                        frame._ip = ip;
+                        callValue(stack[sp - argumentCount - 1], argumentCount, closure, ip - 1);
+                    }
+                    else if (instruction == OP_INVOKE)
+                    {
+                        String name = (String)constants[readShort(code, ip)];
+                        int argumentCount = code[ip + 2] & 0xff;
+                        ip += 3;
+                        frame._ip = ip;
+                        invoke(name, argumentCount, closure, ip - 4);
+                    }
+                    else
+                    {
+                        String name = (String)constants[readShort(code, ip)];
+                        int argumentCount = code[ip + 2] & 0xff;
+                        ip += 3;
+                        frame._ip = ip;
+                        ObjClass superclass = (ObjClass)stack[--_stackTop];
+                        callClosure(findSuperMethod(superclass, name, closure, ip - 4), argumentCount, closure, ip - 1);
+                    }
+
+                    frame = _frames[_frameCount - 1];
+                    closure = frame._closure;
+                    code = closure.function.getChunk().getCode();
+                    constants = closure.function.getChunk().getConstants();
+                    ip = frame._ip;
+                    base = frame._base;
+                    stack = _stack;
+                    sp = _stackTop;
+                    break;
+                }
+                case OP_CLOSURE:
+                {
+                    ObjFunction function = (ObjFunction)constants[readShort(code, ip)];
+                    ip += 2;
+                    ObjClosure created = new ObjClosure(function);
+                    for (int i = 0; i < created.upvalues.length; i++)
+                    {
+                        boolean isLocal = code[ip++] == 1;
+                        int index = code[ip++] & 0xff;
+                        created.upvalues[i] = isLocal ? captureUpvalue(base + index) : closure.upvalues[index];
+                    }
+                    stack[sp++] = created;
+                    break;
+                }
+                case OP_CLOSE_UPVALUE:
+                    closeUpvalues(sp - 1);
+                    sp--;
+                    break;
+                case OP_RETURN:
+                {
+                    Object result = stack[--sp];
+                    closeUpvalues(base);
+                    _frameCount--;
+                    if (_frameCount == 0)
+                    {
+                        _stackTop = sp - 1;
+                        return;
+                    }
+
+                    sp = base;
+                    stack[sp++] = result;
+
+                    frame = _frames[_frameCount - 1];
+                    closure = frame._closure;
+                    code = closure.function.getChunk().getCode();
+                    constants = closure.function.getChunk().getConstants();
+                    ip = frame._ip;
+                    base = frame._base;
+                    break;
+                }
+                // classes
+                case OP_CLASS:
+                    stack[sp++] = new ObjClass((String)constants[readShort(code, ip)]);
+                    ip += 2;
+                    break;
+                case OP_INHERIT:
+                {
+                    Object superclass = stack[sp - 2];
+                    if (!(superclass instanceof ObjClass))
+                        throw error(closure, ip - 1, "Superclass must be a class.");
+
+                    ((ObjClass)stack[sp - 1]).inherit((ObjClass)superclass);
+                    sp--;
+                    break;
+                }
+                case OP_METHOD:
+                {
+                    String name = (String)constants[readShort(code, ip)];
+                    ip += 2;
+                    ObjClosure method = (ObjClosure)stack[--sp];
+                    ObjClass klass = (ObjClass)stack[sp - 1];
+                    klass.methods.put(name, method);
+                    if (name.equals("init")) klass.initializer = method;
+                    break;
+                }
+                case OP_STATIC_METHOD:
+                {
+                    String name = (String)constants[readShort(code, ip)];
+                    ip += 2;
+                    ObjClosure method = (ObjClosure)stack[--sp];
+                    ((ObjClass)stack[sp - 1]).staticMethods.put(name, method);
+                    break;
+                }
+            }
+        }
+    }
+
+    //----------------------//
+    //    helper methods    //
+    //----------------------//
+    private static int readShort(byte[] code, int ip)
+    {
+        return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+    }
+
+    private void push(Object value)
+    {
+        _stack[_stackTop++] = value;
+    }
+
+    // calls
+    private void callValue(Object callee, int argumentCount, ObjClosure caller, int offset)
+    {
+        if (callee instanceof ObjClosure)
+        {
+            callClosure((ObjClosure)callee, argumentCount, caller, offset);
+            return;
+        }
+
+        if (callee instanceof ObjBoundMethod)
+        {
+            ObjBoundMethod bound = (ObjBoundMethod)callee;
+            _stack[_stackTop - argumentCount - 1] = bound.receiver;
+            callClosure(bound.method, argumentCount, caller, offset);
+            return;
+        }
+
+        if (callee instanceof ObjClass)
+        {
+            ObjClass klass = (ObjClass)callee;
+            checkArity(klass.arity(), argumentCount, caller, offset);
+
+            _stack[_stackTop - argumentCount - 1] = new ObjInstance(klass);
+            if (klass.initializer != null)
+                callClosure(klass.initializer, argumentCount, caller, offset);
+            else
+                _stackTop -= argumentCount;
+            return;
+        }
+
+        if (callee instanceof ObjNative)
+        {
+            ObjNative function = (ObjNative)callee;
+            checkArity(function.arity, argumentCount, caller, offset);
+
+            Object result = function.function.call(_stack, _stackTop - argumentCount);
+            _stackTop -= argumentCount + 1;
+            _stack[_stackTop++] = result;
+            return;
+        }
+
+        throw error(caller, offset, "Can only call functions and classes.");
+    }
+
+    private void callClosure(ObjClosure closure, int argumentCount, ObjClosure caller, int offset)
+    {
+        checkArity(closure.function.getArity(), argumentCount, caller, offset);
+        call(closure, argumentCount, offset);
+    }
+
+    private void call(ObjClosure closure, int argumentCount, int offset)
+    {
+        int base = _stackTop - argumentCount - 1;
+        int top = base + closure.function.getMaxStack();
+        if ((long)(_frameCount + 1) * FRAME_BYTES + (long)top * SLOT_BYTES > _stackBudget)
+            throw error(_frames[_frameCount - 1]._closure, offset, "Stack overflow.");
+
+        if (_frameCount == _frames.length)
+            _frames = Arrays.copyOf(_frames, _frameCount * 2);
+        if (top >= _stack.length)
+            _stack = Arrays.copyOf(_stack, Math.max(_stack.length * 2, top + 1));
+
+        CallFrame frame = _frames[_frameCount];
+        if (frame == null) frame = _frames[_frameCount] = new CallFrame();
+        _frameCount++;
+
+        frame._closure = closure;
+        frame._ip = 0;
+        frame._base = base;
+    }
+
+    private void invoke(String name, int argumentCount, ObjClosure caller, int offset)
+    {
+        Object receiver = _stack[_stackTop - argumentCount - 1];
+
+        if (receiver instanceof ObjClass)
+        {
+            ObjClosure method = ((ObjClass)receiver).staticMethods.get(name);
+            if (method == null)
+                throw error(caller, offset, "Undefined property '" + name + "'.");
+
+            callClosure(method, argumentCount, caller, offset + 3);
+            return;
+        }
+
+        if (!(receiver instanceof ObjInstance))
+            throw error(caller, offset, "Only instances have properties.");
+
+        ObjInstance instance = (ObjInstance)receiver;
+        Object field = instance.fields.get(name);
+        if (field != null || instance.fields.containsKey(name))
+        {
+            _stack[_stackTop - argumentCount - 1] = field;
+            callValue(field, argumentCount, caller, offset + 3);
+            return;
+        }
+
+        ObjClosure method = instance.klass.methods.get(name);
+        if (method == null)
+            throw error(caller, offset, "Undefined property '" + name + "'.");
+
+        callClosure(method, argumentCount, caller, offset + 3);
+    }
+
+    private Object getProperty(Object object, String name, ObjClosure caller, int offset)
+    {
+        if (object instanceof ObjClass)
+        {
+            ObjClosure method = ((ObjClass)object).staticMethods.get(name);
+            if (method == null)
+                throw error(caller, offset, "Undefined property '" + name + "'.");
+
+            return new ObjBoundMethod(object, method);
+        }
+
+        if (!(object instanceof ObjInstance))
+            throw error(caller, offset, "Only instances have properties.");
+
+        ObjInstance instance = (ObjInstance)object;
+        Object field = instance.fields.get(name);
+        if (field != null || instance.fields.containsKey(name))
+            return field;
+
+        ObjClosure method = instance.klass.methods.get(name);
+        if (method == null)
+            throw error(caller, offset, "Undefined property '" + name + "'.");
+
+        return new ObjBoundMethod(instance, method);
+    }
+
+    // the errors invoke gives when object has no name to call
+    private void checkProperty(Object object, String name, ObjClosure caller, int offset)
+    {
+        if (object instanceof ObjClass)
+        {
+            if (!((ObjClass)object).staticMethods.containsKey(name))
+                throw error(caller, offset, "Undefined property '" + name + "'.");
+            return;
+        }
+
+        if (!(object instanceof ObjInstance))
+            throw error(caller, offset, "Only instances have properties.");
+
+        ObjInstance instance = (ObjInstance)object;
+        if (!instance.fields.containsKey(name) && !instance.klass.methods.containsKey(name))
+            throw error(caller, offset, "Undefined property '" + name + "'.");
+    }
+
+    private ObjClosure findSuperMethod(ObjClass superclass, String name, ObjClosure caller, int offset)
+    {
+        ObjClosure method = superclass.methods.get(name);
+        if (method == null) method = superclass.staticMethods.get(name);
+        if (method == null)
+            throw error(caller, offset, "Undefined property '" + name + "'.");
+
+        return method;
+    }
+
+    private void checkArity(int arity, int argumentCount, ObjClosure caller, int offset)
+    {
+        if (argumentCount != arity)
+            throw error(caller, offset, "Expected " + arity + " arguments but got " + argumentCount + ".");
+    }
+
+    // upvalues
+    private ObjUpvalue captureUpvalue(int location)
+    {
+        ObjUpvalue previous = null;
+        ObjUpvalue upvalue = _openUpvalues;
+        while (upvalue != null && upvalue.location > location)
+        {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+
+        if (upvalue != null && upvalue.location == location) return upvalue;
+
+        ObjUpvalue created = new ObjUpvalue(location);
+        created.next = upvalue;
+
+        if (previous == null) _openUpvalues = created;
+        else previous.next = created;
+
+        return created;
+    }
+
+    private void closeUpvalues(int last)
+    {
+        while (_openUpvalues != null && _openUpvalues.location >= last)
+        {
+            ObjUpvalue upvalue = _openUpvalues;
+            upvalue.closed = _stack[upvalue.location];
+            upvalue.location = -1;
+            _openUpvalues = upvalue.next;
+        }
+    }
+
+    // values
+    private static boolean isTruthy(Object object)
+    {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (boolean)object;
+        return true;
+    }
+
+    private static boolean isEqual(Object a, Object b)
+    {
+        if (a == null && b == null) return true;
+        if (a == null) return false;
+
+        return a.equals(b);
+    }
+
+    private void checkNumberOperands(Object left, Object right, ObjClosure closure, int offset)
+    {
+        if (left instanceof Double && right instanceof Double) return;
+        throw error(closure, offset, "Operands must be numbers.");
+    }
+
+    private RuntimeError error(ObjClosure closure, int offset, String message)
+    {
+        return new RuntimeError(closure.function.getChunk().getLines()[offset], message);
+    }
+}
@@ -18,31 +18,45 @@ public class GenerateAST
 
         String  outputDir = args[0];
         defineAST(outputDir, "Expression", Arrays.asList(
-                "Assign   : Token name, Expression value",
-                "Binary   : Expression left, Token operator, Expression right",
+                "Assign   : Token name, Expression value : Access access = Access.GLOBAL, int slot",
+                "Binary   : Expression left, Token operator, Expression right : " +
+                          "boolean numeric, BinaryNode node = BinaryNode.UNINITIALIZED",
                 "Call     : Expression callee, Token paren, List<Expression> arguments",
-                "Get      : Expression object, Token name",
+                "CallGlobal : Token name, Token paren, List<Expression> arguments : int slot",
+                "Compare  : Token name, Token operator, double constant : Access access = Access.GLOBAL, int slot",
+                "Get      : Expression object, Token name : PropertyCache cache = new PropertyCache()",
                 "Grouping : Expression expression",
+                "Hoisted  : Token name, Expression expression : int slot",
+                "Increment : Token name, Token operator, double delta : Access access = Access.GLOBAL, int slot",
+                "Inline   : Token name, Token paren, List<Expression> arguments, Expression body : " +
+                          "int slot, int[] slots, Statement.Function function",
+                "InlineMethod : Expression object, Token name, Token paren, List<Expression> arguments, " +
+                          "Expression body : PropertyCache cache = new PropertyCache(), int receiverSlot, int[] slots, " +
+                          "Statement.Function function",
                 "Literal  : Object value",
                 "Logical  : Expression left, Token operator, Expression right",
-                "Set      : Expression object, Token name, Expression value",
-                "Super    : Token keyword, Token method",
-                "This     : Token keyword",
+                "Set      : Expression object, Token name, Expression value : PropertyCache cache = new PropertyCache()",
+                "Super    : Token keyword, Token method : Access access = Access.GLOBAL, int slot, This receiver",
+                "This     : Token keyword : Access access = Access.GLOBAL, int slot",
                 "Unary    : Token operator, Expression right",
                 "Ternary  : Token operator, Expression condition, Expression ifTrue, Expression ifFalse",
-                "Variable : Token name"
+                "Variable : Token name : Access access = Access.GLOBAL, int slot"
         ));
         defineAST(outputDir, "Statement", Arrays.asList(
-                "Block    : List<Statement> statements",
+                "Block    : List<Statement> statements : int frameSize = -1",
                 "Class    : Token name, Expression.Variable superclass, List<Statement.Function> staticMethods, " +
-                          "List<Statement.Function> methods",
+                          "List<Statement.Function> methods : int slot, boolean captured, int superSlot",
                 "Expr     : Expression expression",
-                "Function : Token name, List<Token> params, List<Statement> body",
+                "For      : Token keyword, Statement initializer, Expression condition, Expression increment, Statement body : " +
+                          "int frameSize = -1, boolean counter, double step",
+                "Function : Token name, List<Token> params, List<Statement> body : int slot, boolean captured, " +
+                          "int frameSize, int[] capturedSlots = new int[0], Upvalue[] upvalues = new Upvalue[0], " +
+                          "me.shakedkod.lox.jit.Tier tier = new me.shakedkod.lox.jit.Tier()",
                 "If       : Expression condition, Statement thenBranch, Statement elseBranch",
                 "Print    : Expression expression",
-                "Return   : Token keyword, Expression value",
-                "Var      : Token name, Expression initializer",
-                "While    : Expression condition, Statement body"
+                "Return   : Token keyword, Expression value : boolean tail",
+                "Var      : Token name, Expression initializer : int slot, boolean captured",
+                "While    : Token keyword, Expression condition, Statement body"
         ));
     }
 
@@ -55,14 +69,23 @@ public class GenerateAST
         writer.println();
         writer.println("import java.util.List;");
         writer.println();
-        writer.println("abstract class " + baseName);
+        // the hierarchy is sealed, so a switch on the kind of a node covers every class it can be
+        writer.print("public abstract sealed class " + baseName + " permits ");
+        for (int i = 0; i < types.size(); i++)
+        {
+            String className = types.get(i).split(":")[0].trim();
+            writer.print(baseName + "." + className + (i == types.size() - 1 ? "" : ", "));
+        }
+        writer.println();
         writer.println("{");
 
+        defineKinds(writer, baseName, types);
+        writer.println();
         defineVisitor(writer, baseName, types);
 
         // The base accept() method.
         writer.println();
-        writer.println("\tabstract <R> R accept(Visitor<R> visitor);");
+        writer.println("\tpublic abstract <R> R accept(Visitor<R> visitor);");
 
         // The AST classes.
         writer.println();
@@ -70,16 +93,20 @@ public class GenerateAST
         {
             String className = type.split(":")[0].trim();
             String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String state = type.split(":").length > 2 ? type.split(":")[2].trim() : null;
+            defineType(writer, baseName, className, fields, state);
         }
 
         writer.println("}");
         writer.close();
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList)
+    // state is an optional list of mutable fields that are not constructor parameters,
+    // filled in by later passes (e.g. the resolver) - "Access access = Access.GLOBAL, int slot"
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList,
+                                   String state)
     {
-        writer.println("\tstatic class "+ className + " extends " + baseName);
+        writer.println("\tpublic static final class "+ className + " extends " + baseName);
         writer.println("\t{");
 
         // Fields
@@ -98,6 +125,10 @@ public class GenerateAST
                 writer.println("\t\tprivate final " + type + " _" + name + ";");
         }
 
+        String[] stateFields = state == null ? new String[0] : state.split(", ");
+        for (String field : stateFields)
+            writer.println("\t\tprivate " + field.split(" ")[0] + " _" + field.substring(field.indexOf(' ') + 1) + ";");
+
         // constructor
         writer.println();
 
@@ -132,6 +163,7 @@ public class GenerateAST
             writer.println();
         }
         writer.println("\t\t{");
+        writer.println("\t\t\tsuper(" + className.toUpperCase() + ");");
 
         // store the parameters in fields
         for (String field : fields)
@@ -145,7 +177,7 @@ public class GenerateAST
         // Visitor pattern.
         writer.println();
         writer.println("\t\t@Override");
-        writer.println("\t\t<R> R accept(Visitor<R> visitor)");
+        writer.println("\t\tpublic <R> R accept(Visitor<R> visitor)");
         writer.println("\t\t{");
         writer.println("\t\t\treturn visitor.visit" + className + baseName + "(this);");
         writer.println("\t\t}");
@@ -168,13 +200,43 @@ public class GenerateAST
                 writer.println("\t\tpublic " + type + " get" + upperCaseName + "() { return _" + name + "; }");
         }
 
+        for (String field : stateFields)
+        {
+            String type = field.split(" ")[0];
+            String name = field.split(" ")[1];
+            String upperCaseName = name.substring(0, 1).toUpperCase() + name.substring(1);
+
+            writer.println("\t\tpublic " + type + " get" + upperCaseName + "() { return _" + name + "; }");
+            writer.println("\t\tpublic void set" + upperCaseName + "(" + type + " " + name + ") { _" + name + " = " + name + "; }");
+        }
+
         // class end
         writer.println("\t}\n");
     }
 
+    // a dense tag for every class, numbered in the order they are listed
+    private static void defineKinds(PrintWriter writer, String baseName, List<String> types)
+    {
+        for (int i = 0; i < types.size(); i++)
+        {
+            String className = types.get(i).split(":")[0].trim();
+            writer.println("\tpublic static final int " + className.toUpperCase() + " = " + i + ";");
+        }
+
+        writer.println();
+        writer.println("\tprivate final int _kind;");
+        writer.println();
+        writer.println("\tprotected " + baseName + "(int kind)");
+        writer.println("\t{");
+        writer.println("\t\t_kind = kind;");
+        writer.println("\t}");
+        writer.println();
+        writer.println("\tpublic final int getKind() { return _kind; }");
+    }
+
     private static void defineVisitor(PrintWriter writer, String baseName, List<String> types)
     {
-        writer.println("\tinterface Visitor<R>");
+        writer.println("\tpublic interface Visitor<R>");
         writer.println("\t{");
 
         for (String type : types)